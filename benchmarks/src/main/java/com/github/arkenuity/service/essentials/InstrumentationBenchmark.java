@@ -0,0 +1,78 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+
+/**
+ * The cost of recording the metrics of an invocation, into the striped handles the invocations record into and,
+ * for comparison, into the registry counter and timer they used to. Run with the GC profiler to check that recording
+ * into the handles does not allocate (a gc.alloc.rate.norm of 0 B/op):
+ *
+ * <pre>
+ *    java -jar benchmarks/target/benchmarks.jar InstrumentationBenchmark -prof gc
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class InstrumentationBenchmark {
+    private static final long LATENCY_NANOS = MILLISECONDS.toNanos(12);
+
+    private StripedCounter counter;
+    private LatencyHistogram latency;
+    private Counter registryCounter;
+    private Timer registryTimer;
+
+    @Setup
+    public void setUp() {
+        counter = MetricsView.counter(new MetricName(InstrumentationBenchmark.class, "Success", "striped"));
+        latency = MetricsView.latency(new MetricName(InstrumentationBenchmark.class, "Success-Time", "striped"), null);
+        registryCounter = Metrics.newCounter(new MetricName(InstrumentationBenchmark.class, "Success", "registry"));
+        registryTimer = Metrics.newTimer(new MetricName(InstrumentationBenchmark.class, "Success-Time", "registry"),
+                MILLISECONDS, MINUTES);
+    }
+
+    @Benchmark
+    public void stripedCounter() {
+        counter.inc();
+    }
+
+    @Benchmark
+    public void latencyHistogram() {
+        latency.record(LATENCY_NANOS);
+    }
+
+    @Benchmark
+    public void registryCounter() {
+        registryCounter.inc();
+    }
+
+    @Benchmark
+    public void registryTimer() {
+        registryTimer.update(LATENCY_NANOS, NANOSECONDS);
+    }
+}
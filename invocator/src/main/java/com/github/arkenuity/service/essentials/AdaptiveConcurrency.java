@@ -0,0 +1,37 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Bounds the invocations in flight of a dependency, as identified by {@link Instrumented} (clazz and method), by a
+ * limit which adapts to the measured latencies and failures, the way TCP Vegas adapts its congestion window:
+ * <p>
+ * <li> the limit grows while the latencies stay close to the lowest latency observed (no queueing downstream).
+ * <li> the limit shrinks as the latencies grow (queueing), and is cut by {@link #backoffRatio()} on the failures and
+ * timeouts of the dependency; the hedges which lost, the calls cancelled by their caller and the rejections are not
+ * sampled.
+ * <p>
+ * The invocations exceeding the limit are shed right away with a {@link ConcurrencyLimitExceededException}. The
+ * limit is shared by all the Callables instrumented with the same clazz and method.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface AdaptiveConcurrency {
+
+    int initialLimit() default 20;
+
+    int minLimit() default 1;
+
+    int maxLimit() default 1000;
+
+    /**
+     * Factor applied to the limit on a failure (or timeout).
+     */
+    double backoffRatio() default 0.9;
+}
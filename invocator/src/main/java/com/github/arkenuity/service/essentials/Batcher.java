@@ -0,0 +1,361 @@
+package com.github.arkenuity.service.essentials;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.collect.LinkedListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Histogram;
+
+/**
+ * Gathers the single item invocations of a dependency into bulk invocations: the keys requested are queued and
+ * flushed as one bulk Callable once {@link Builder#maxBatchSize(int)} keys are queued, or
+ * {@link Builder#maxDelay(long, TimeUnit)} after the first one was, whichever comes first. The values of the bulk
+ * result are then handed to each caller.
+ * <p>
+ * The bulk Callables are submitted through {@link ServiceInvocation#submit(Callable, ExecutionEngine)}, so the
+ * {@link Conform} and {@link Instrumented} annotations of their call method apply to each batch; the batcher itself
+ * tracks the batch sizes and the time each item took, from being queued to being handed its value.
+ * <p>
+ * An item is bounded by the {@link Deadline} of its caller, if any, or else by {@link Builder#maxWait(long, TimeUnit)}
+ * on top of the maxDelay, and fails with a {@link TimeoutException} once past it. A batch is built and dispatched by
+ * a thread of the engine, rather than by the caller or the timer which flushed it, and its bulk Callable is invoked
+ * under the latest deadline of its items, so that it is timed out even when it does not {@link Conform}.
+ *
+ * <pre>
+ *    Batcher&lt;Long, UserProfile&gt; profiles = Batcher.builder(UserProfileServiceProxy.class, "byProfileIds",
+ *        new Batcher.Bulk&lt;Long, UserProfile&gt;() {
+ *            public Callable&lt;Map&lt;Long, UserProfile&gt;&gt; of(final List&lt;Long&gt; profileIds) {
+ *                return new Callable&lt;Map&lt;Long, UserProfile&gt;&gt;() {
+ *                    &#064Conform(maxWaitTime=200, maxWaitTimeUnit=TimeUnit.MILLISECONDS)
+ *                    &#064Instrumented(clazz=UserProfileServiceProxy.class, method="byProfileIds")
+ *                    public Map&lt;Long, UserProfile&gt; call() {
+ *                        return profileService.byProfileIds(profileIds);
+ *                    }};
+ *            }}).maxBatchSize(50).maxDelay(5, TimeUnit.MILLISECONDS).build();
+ *
+ *    UserProfile profile = profiles.execute(profileId);
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public final class Batcher<K, V> {
+
+    /**
+     * Creates the bulk Callable fetching the values of the given keys, which are distinct. The keys missing from the
+     * returned map are handed a null value.
+     */
+    public interface Bulk<K, V> {
+        Callable<Map<K, V>> of(List<K> keys);
+    }
+
+    private final Bulk<K, V> bulk;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long maxWaitNanos;
+    private final ExecutionEngine engine;
+    private final Dependency dependency;
+    private final Histogram batchSize;
+    private final LatencyHistogram itemTime;
+
+    private final Object lock = new Object();
+    private ListMultimap<K, Item> pending = LinkedListMultimap.create();
+    private long generation;
+
+    private Batcher(final Builder<K, V> builder) {
+        bulk = builder.bulk;
+        maxBatchSize = builder.maxBatchSize;
+        maxDelayNanos = builder.maxDelayNanos;
+        maxWaitNanos = builder.maxWaitNanos;
+        engine = builder.engine;
+        dependency = Dependency.of(builder.clazz, builder.method);
+        batchSize = Metrics.newHistogram(dependency.metricName("Batch-Size"), false);
+        itemTime = dependency.histogram("Batched-Item-Time", null);
+    }
+
+    /**
+     * @param clazz  the class under which the batching metrics are reported, typically the one of the
+     *               {@link Instrumented} bulk Callables
+     * @param method the scope of the batching metrics
+     */
+    public static <K, V> Builder<K, V> builder(final Class<?> clazz, final String method, final Bulk<K, V> bulk) {
+        return new Builder<K, V>(clazz, method, bulk);
+    }
+
+    public V execute(final K key) {
+        try {
+            return submit(key).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceInvocationException(e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof InvocationRejectedException) {
+                throw (InvocationRejectedException) e.getCause();
+            }
+            throw new ServiceInvocationException(e.getCause());
+        }
+    }
+
+    /**
+     * Queues the key for the next batch, the returned future fails with the cause of the failure of the batch if any,
+     * or once the item is past its deadline.
+     */
+    public ListenableFuture<V> submit(final K key) {
+        checkNotNull(key, "A non null key should be passed.");
+        final Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            return Futures.immediateFailedFuture(deadline.exceeded(dependency));
+        }
+        final Item item = new Item(deadline);
+        item.bound();
+        final ListMultimap<K, Item> full;
+        final long scheduled;
+        synchronized (lock) {
+            pending.put(key, item);
+            if (pending.keySet().size() >= maxBatchSize) {
+                full = drain();
+                scheduled = -1;
+            } else {
+                full = null;
+                scheduled = pending.size() == 1 ? generation : -1;
+            }
+        }
+        if (full != null) {
+            flush(full);
+        } else if (scheduled >= 0) { // First of its batch
+            schedule(scheduled);
+        }
+        return item.future;
+    }
+
+    private void schedule(final long batch) {
+        try {
+            engine.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    final ListMultimap<K, Item> due;
+                    synchronized (lock) {
+                        // Unless already flushed as full
+                        due = generation == batch && !pending.isEmpty() ? drain() : null;
+                    }
+                    if (due != null) {
+                        flush(due);
+                    }
+                }
+            }, maxDelayNanos, NANOSECONDS);
+        } catch (final RejectedExecutionException e) {
+            final ListMultimap<K, Item> due;
+            synchronized (lock) {
+                due = generation == batch ? drain() : null;
+            }
+            if (due != null) {
+                fail(due, e);
+            }
+        }
+    }
+
+    private ListMultimap<K, Item> drain() {
+        final ListMultimap<K, Item> drained = pending;
+        pending = LinkedListMultimap.create();
+        generation++;
+        return drained;
+    }
+
+    /**
+     * Hands the batch over to a thread of the engine, so that neither the caller nor the timer which flushed it build
+     * the bulk Callable.
+     */
+    private void flush(final ListMultimap<K, Item> batch) {
+        try {
+            engine.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    dispatch(batch);
+                    return null;
+                }
+            }, null, Criticality.current());
+        } catch (final RejectedExecutionException e) {
+            fail(batch, e);
+        }
+    }
+
+    /**
+     * Invokes the bulk Callable for the keys still awaited, under the latest deadline of their items.
+     */
+    private void dispatch(final ListMultimap<K, Item> batch) {
+        final List<K> keys = new ArrayList<K>(batch.keySet().size());
+        Deadline latest = null;
+        for (final K key : batch.keySet()) {
+            boolean awaited = false;
+            for (final Item item : batch.get(key)) {
+                if (!item.future.isDone()) { // Neither cancelled nor past its deadline
+                    awaited = true;
+                    if (latest == null || item.deadline.remainingNanos() > latest.remainingNanos()) {
+                        latest = item.deadline;
+                    }
+                }
+            }
+            if (awaited) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        batchSize.update(keys.size());
+        ListenableFuture<Map<K, V>> result;
+        try {
+            result = latest.bind(new Callable<ListenableFuture<Map<K, V>>>() {
+                @Override
+                public ListenableFuture<Map<K, V>> call() {
+                    return ServiceInvocation.submit(bulk.of(keys), engine);
+                }
+            }).call();
+        } catch (final Exception e) {
+            result = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(result, new FutureCallback<Map<K, V>>() {
+            @Override
+            public void onSuccess(final Map<K, V> values) {
+                for (final K key : keys) {
+                    final V value = values == null ? null : values.get(key);
+                    for (final Item item : batch.get(key)) {
+                        item.complete(value);
+                    }
+                }
+            }
+            @Override
+            public void onFailure(final Throwable th) {
+                fail(batch, th);
+            }
+        });
+    }
+
+    private void fail(final ListMultimap<K, Item> batch, final Throwable th) {
+        for (final Item item : batch.values()) {
+            item.fail(th);
+        }
+    }
+
+    private final class Item {
+        private final SettableFuture<V> future = SettableFuture.create();
+        private final long queuedAt = System.nanoTime();
+        private final Deadline caller;
+        private final Deadline deadline;
+
+        private Item(final Deadline caller) {
+            this.caller = caller;
+            this.deadline = Deadline.earliest(caller, Deadline.after(maxDelayNanos + maxWaitNanos, NANOSECONDS));
+        }
+
+        /**
+         * Fails the item once past its deadline, unless complete by then.
+         */
+        private void bound() {
+            final ScheduledFuture<?> timer = engine.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    fail(deadline == caller ? caller.exceeded(dependency) : new TimeoutException(String.format(
+                            "Batched item of %s did not complete within %d ms", dependency,
+                            NANOSECONDS.toMillis(maxDelayNanos + maxWaitNanos))));
+                }
+            }, deadline.remainingNanos(), NANOSECONDS);
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    timer.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private void complete(final V value) {
+            if (future.set(value)) {
+                itemTime.record(System.nanoTime() - queuedAt);
+            }
+        }
+
+        private void fail(final Throwable th) {
+            if (future.setException(th)) {
+                itemTime.record(System.nanoTime() - queuedAt);
+            }
+        }
+    }
+
+    public static final class Builder<K, V> {
+        private final Class<?> clazz;
+        private final String method;
+        private final Bulk<K, V> bulk;
+        private int maxBatchSize = 100;
+        private long maxDelayNanos = MILLISECONDS.toNanos(10);
+        private long maxWaitNanos = SECONDS.toNanos(1);
+        private ExecutionEngine engine;
+
+        private Builder(final Class<?> clazz, final String method, final Bulk<K, V> bulk) {
+            this.clazz = checkNotNull(clazz, "A non null class should be passed.");
+            this.method = checkNotNull(method, "A non null method should be passed.");
+            this.bulk = checkNotNull(bulk, "A non null Bulk instance should be passed.");
+        }
+
+        /**
+         * Number of distinct keys which triggers the flush of a batch.
+         */
+        public Builder<K, V> maxBatchSize(final int maxBatchSize) {
+            checkArgument(maxBatchSize > 0, "maxBatchSize should be positive.");
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Time a key may wait for its batch to fill up, before the batch is flushed anyway.
+         */
+        public Builder<K, V> maxDelay(final long maxDelay, final TimeUnit unit) {
+            checkArgument(maxDelay > 0, "maxDelay should be positive.");
+            this.maxDelayNanos = unit.toNanos(maxDelay);
+            return this;
+        }
+
+        /**
+         * Time an item may wait for the bulk invocation of its batch once flushed, after which it fails with a
+         * {@link TimeoutException}; the deadline of the caller applies instead, if any. 1 second by default.
+         */
+        public Builder<K, V> maxWait(final long maxWait, final TimeUnit unit) {
+            checkArgument(maxWait > 0, "maxWait should be positive.");
+            this.maxWaitNanos = unit.toNanos(maxWait);
+            return this;
+        }
+
+        /**
+         * The engine running the bulk Callables, {@link ServiceInvocation#defaultEngine()} when not set.
+         */
+        public Builder<K, V> engine(final ExecutionEngine engine) {
+            this.engine = checkNotNull(engine, "A non null ExecutionEngine instance should be passed.");
+            return this;
+        }
+
+        public Batcher<K, V> build() {
+            if (engine == null) {
+                engine = ServiceInvocation.defaultEngine();
+            }
+            return new Batcher<K, V>(this);
+        }
+    }
+}
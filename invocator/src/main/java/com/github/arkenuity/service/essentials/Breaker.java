@@ -0,0 +1,210 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The {@link CircuitBreaker} of a dependency. The state and its generation (bumped on each transition) are packed in
+ * a single atomic long: admitting a call while closed is a volatile read, and recording its outcome a few atomic
+ * increments on the {@link SlidingWindow}. Only the transitions, which are rare, are synchronized.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Breaker {
+    static final int CLOSED = 0;
+    static final int OPEN = 1;
+    static final int HALF_OPEN = 2;
+    /** Returned by {@link #acquire()} when the call is rejected. */
+    static final long REJECTED = -1;
+
+    private static final int WINDOW_BUCKETS = 10;
+
+    private final Dependency dependency;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final SlidingWindow window;
+
+    private final AtomicLong state = new AtomicLong(CLOSED);
+    private volatile long openedAt;
+    private final AtomicInteger trialPermits = new AtomicInteger();
+    private final AtomicInteger trialCalls = new AtomicInteger();
+    private final AtomicInteger trialFailures = new AtomicInteger();
+    private final AtomicInteger trialSlow = new AtomicInteger();
+
+    private final StripedCounter opened;
+    private final StripedCounter rejected;
+
+    Breaker(final Dependency dependency, final CircuitBreaker config) {
+        this.dependency = dependency;
+        this.failureRateThreshold = config.failureRateThreshold();
+        this.slowCallRateThreshold = config.slowCallRateThreshold();
+        this.slowCallNanos = config.slowCallDuration() > 0 ?
+            config.slowCallDurationUnit().toNanos(config.slowCallDuration()) : Long.MAX_VALUE;
+        this.minimumCalls = Math.max(1, config.minimumCalls());
+        this.openNanos = config.openDurationUnit().toNanos(config.openDuration());
+        this.halfOpenCalls = Math.max(1, config.halfOpenCalls());
+        this.window = new SlidingWindow(config.windowUnit().toNanos(config.window()), WINDOW_BUCKETS);
+        opened = dependency.counter("Circuit-Opened");
+        rejected = dependency.counter("Circuit-Rejected");
+        Metrics.newGauge(dependency.metricName("Circuit-State"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return state();
+            }
+        });
+        Metrics.newGauge(dependency.metricName("Circuit-Failure-Rate"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return window.snapshot().failureRate();
+            }
+        });
+        Metrics.newGauge(dependency.metricName("Circuit-Slow-Call-Rate"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return window.snapshot().slowRate();
+            }
+        });
+    }
+
+    int state() {
+        return (int) (state.get() & 3);
+    }
+
+    /**
+     * Admits a call, returning the token to pass to {@link #track(ListenableFuture, long)}, or {@link #REJECTED}.
+     */
+    long acquire() {
+        final long current = state.get();
+        switch ((int) (current & 3)) {
+        case CLOSED:
+            return current;
+        case OPEN:
+            if (System.nanoTime() - openedAt < openNanos) {
+                rejected.inc();
+                return REJECTED;
+            }
+            halfOpen(current);
+            return acquire();
+        default:
+            if (trialPermits.getAndDecrement() > 0) {
+                return current;
+            }
+            trialPermits.incrementAndGet();
+            rejected.inc();
+            return REJECTED;
+        }
+    }
+
+    CircuitOpenException reject() {
+        return new CircuitOpenException(String.format("Circuit of %s is open", dependency));
+    }
+
+    /**
+     * Records the outcome of the admitted call once the future completes. The calls cancelled or rejected (by a
+     * bulkhead etc) are not accounted for.
+     */
+    void track(final ListenableFuture<?> future, final long token) {
+        final long start = System.nanoTime();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                final long elapsed = System.nanoTime() - start;
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                    record(token, false, elapsed >= slowCallNanos);
+                } catch (final CancellationException e) {
+                    ignore(token);
+                } catch (final ExecutionException e) {
+                    if (e.getCause() instanceof InvocationRejectedException) {
+                        ignore(token);
+                    } else {
+                        record(token, true, elapsed >= slowCallNanos);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void record(final long token, final boolean failure, final boolean slow) {
+        final long current = state.get();
+        if (current != token) { // Admitted under a previous state
+            return;
+        }
+        if ((current & 3) == CLOSED) {
+            window.record(failure, slow);
+            if ((failure || slow) && tripped(window.snapshot())) {
+                open(current);
+            }
+        } else if ((current & 3) == HALF_OPEN) {
+            if (failure) {
+                trialFailures.incrementAndGet();
+            }
+            if (slow) {
+                trialSlow.incrementAndGet();
+            }
+            if (trialCalls.incrementAndGet() >= halfOpenCalls) {
+                if ((double) trialFailures.get() / halfOpenCalls >= failureRateThreshold ||
+                    (slowCallRateThreshold > 0 && (double) trialSlow.get() / halfOpenCalls >= slowCallRateThreshold)) {
+                    open(current);
+                } else {
+                    close(current);
+                }
+            }
+        }
+    }
+
+    private void ignore(final long token) {
+        if (state.get() == token && (token & 3) == HALF_OPEN) {
+            trialPermits.incrementAndGet();
+        }
+    }
+
+    private boolean tripped(final SlidingWindow.Snapshot snapshot) {
+        if (snapshot.calls < minimumCalls) {
+            return false;
+        }
+        return snapshot.failureRate() >= failureRateThreshold ||
+            (slowCallRateThreshold > 0 && snapshot.slowRate() >= slowCallRateThreshold);
+    }
+
+    private synchronized void open(final long from) {
+        if (state.get() == from) {
+            openedAt = System.nanoTime();
+            state.set(next(from, OPEN));
+            opened.inc();
+        }
+    }
+
+    private synchronized void halfOpen(final long from) {
+        if (state.get() == from) {
+            trialPermits.set(halfOpenCalls);
+            trialCalls.set(0);
+            trialFailures.set(0);
+            trialSlow.set(0);
+            state.set(next(from, HALF_OPEN));
+        }
+    }
+
+    private synchronized void close(final long from) {
+        if (state.get() == from) {
+            window.reset();
+            state.set(next(from, CLOSED));
+        }
+    }
+
+    private static long next(final long from, final int state) {
+        return ((from >>> 2) + 1) << 2 | state;
+    }
+}
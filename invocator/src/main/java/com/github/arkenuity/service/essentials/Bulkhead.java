@@ -0,0 +1,37 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Isolates the invocations of a dependency, as identified by {@link Instrumented} (clazz and method), by bounding the
+ * number of concurrent invocations, so that a slow dependency cannot take all the threads of the process. Once
+ * saturated, the invocations wait in a bounded queue, or are rejected with a {@link BulkheadFullException}.
+ * <p>
+ * The bulkhead is shared by all the Callables instrumented with the same clazz and method, and may be configured
+ * programmatically instead through {@link Bulkheads}.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Bulkhead {
+
+    int maxConcurrent();
+
+    /**
+     * Number of invocations which may wait for a permit, the invocations fail fast when 0.
+     */
+    int maxQueued() default 0;
+
+    /**
+     * Time an invocation may wait for a permit, not bounded when 0.
+     */
+    long maxQueueWait() default 0;
+
+    TimeUnit maxQueueWaitUnit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,17 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when the {@link Bulkhead} of a dependency is saturated: all the permits are in use and the queue is either
+ * full or the invocation waited longer than allowed.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class BulkheadFullException extends InvocationRejectedException {
+
+    public BulkheadFullException(final String message) {
+        super(message);
+    }
+
+}
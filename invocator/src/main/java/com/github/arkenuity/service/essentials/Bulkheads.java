@@ -0,0 +1,43 @@
+package com.github.arkenuity.service.essentials;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Programmatic configuration of the {@link Bulkhead}s, which takes precedence over the annotations.
+ *
+ * <pre>
+ *    Bulkheads.isolate(UserProfileServiceProxy.class, "byProfileId", 20, 100, 50, TimeUnit.MILLISECONDS);
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public final class Bulkheads {
+
+    private Bulkheads() {}
+
+    /**
+     * Isolates the dependency instrumented with the given clazz and method, replacing its current bulkhead if any.
+     */
+    public static void isolate(final Class<?> clazz, final String method, final int maxConcurrent,
+                               final int maxQueued, final long maxQueueWait, final TimeUnit maxQueueWaitUnit) {
+        checkNotNull(clazz, "A non null class should be passed.");
+        checkNotNull(method, "A non null method should be passed.");
+        checkArgument(maxConcurrent > 0, "maxConcurrent should be positive.");
+        checkArgument(maxQueued >= 0, "maxQueued should not be negative.");
+        Dependency.of(clazz, method).isolate(maxConcurrent, maxQueued, maxQueueWaitUnit.toNanos(maxQueueWait));
+    }
+
+    public static void isolate(final Class<?> clazz, final String method, final int maxConcurrent) {
+        isolate(clazz, method, maxConcurrent, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes the bulkhead of the dependency, including the one declared by annotation.
+     */
+    public static void remove(final Class<?> clazz, final String method) {
+        Dependency.of(clazz, method).removeBulkhead();
+    }
+}
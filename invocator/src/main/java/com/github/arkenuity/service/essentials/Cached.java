@@ -0,0 +1,77 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the results of a dependency, as identified by {@link Instrumented} (clazz and method), by the key of the
+ * {@link Keyed} Callables; the Callables which are not {@link Keyed} are not cached.
+ * <p>
+ * A result is fresh for the time to live, then stale for the stale while revalidate duration: a stale result is still
+ * returned, while a single invocation refreshes it in the background. Once both have elapsed the result is evicted,
+ * as are the least recently used results once the cache holds {@link #maxSize()} results, or {@link #maxWeight()}
+ * worth of results when weighed. The failures deemed permanent may be cached as well, for a shorter time.
+ * <p>
+ * The eviction is the approximate LRU of the Guava cache, there is no frequency based (W-TinyLFU) admission: a burst
+ * of keys requested once may evict the results requested often.
+ * <p>
+ * The cache is shared by all the Callables instrumented with the same clazz and method.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Cached {
+
+    /**
+     * Time a result is fresh for, once loaded. The results are not cached when 0, which leaves the failures only.
+     */
+    long ttl() default 0;
+
+    TimeUnit ttlUnit() default TimeUnit.SECONDS;
+
+    /**
+     * Time a result is still returned for once stale, while being refreshed. Not returned once stale when 0.
+     */
+    long staleWhileRevalidate() default 0;
+
+    TimeUnit staleWhileRevalidateUnit() default TimeUnit.SECONDS;
+
+    /**
+     * Maximum number of results held, unless weighed.
+     */
+    long maxSize() default 10000;
+
+    /**
+     * Maximum total weight of the results held, as weighed by the {@link #weigher()}, instead of their number when
+     * positive.
+     */
+    long maxWeight() default 0;
+
+    /**
+     * Weigher of the results against the {@link #maxWeight()}.
+     */
+    Class<? extends ResultWeigher> weigher() default DefaultResultWeigher.class;
+
+    /**
+     * The kinds of failures, typically {@link FailureKind#PERMANENT}, which are cached for the {@link #failureTtl()}:
+     * the subsequent invocations of the key fail right away with the cached failure, without invoking the dependency.
+     * A failure is of the kind its root cause is classified as by the {@link Instrumented#classifier()} of the
+     * dependency.
+     */
+    FailureKind[] cacheFailureKinds() default {};
+
+    /**
+     * The failures cached as well for the {@link #failureTtl()} whatever their kind, when either the failure itself or
+     * one of its causes is an instance of one of these.
+     */
+    Class<? extends Throwable>[] cacheFailures() default {};
+
+    long failureTtl() default 5;
+
+    TimeUnit failureTtlUnit() default TimeUnit.SECONDS;
+}
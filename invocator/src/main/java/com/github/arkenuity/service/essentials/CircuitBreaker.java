@@ -0,0 +1,68 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Protects a dependency, as identified by {@link Instrumented} (clazz and method), with a circuit breaker:
+ * <p>
+ * <li> <b>closed</b>, the invocations go through while their outcomes are recorded over a sliding window. Once the
+ * failure rate or the slow call rate over the window reaches its threshold, the circuit opens.
+ * <li> <b>open</b>, the invocations are rejected right away with a {@link CircuitOpenException}, until the open
+ * duration has elapsed.
+ * <li> <b>half open</b>, a few trial invocations go through (the others are rejected), the circuit closes if their
+ * failure and slow call rates are below the thresholds and opens again otherwise.
+ * <p>
+ * The circuit breaker is shared by all the Callables instrumented with the same clazz and method.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CircuitBreaker {
+
+    /**
+     * Rate of failed calls (between 0 and 1) from which the circuit opens.
+     */
+    double failureRateThreshold() default 0.5;
+
+    /**
+     * Rate of slow calls (between 0 and 1) from which the circuit opens, not considered when 0.
+     */
+    double slowCallRateThreshold() default 0;
+
+    /**
+     * Duration from which a call is deemed slow.
+     */
+    long slowCallDuration() default 0;
+
+    TimeUnit slowCallDurationUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Duration of the sliding window over which the rates are computed.
+     */
+    long window() default 10;
+
+    TimeUnit windowUnit() default TimeUnit.SECONDS;
+
+    /**
+     * Number of calls the window should have recorded before the rates are considered.
+     */
+    int minimumCalls() default 20;
+
+    /**
+     * Duration the circuit stays open before letting trial calls through.
+     */
+    long openDuration() default 5;
+
+    TimeUnit openDurationUnit() default TimeUnit.SECONDS;
+
+    /**
+     * Number of trial calls let through while half open.
+     */
+    int halfOpenCalls() default 5;
+}
@@ -0,0 +1,25 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when the {@link CircuitBreaker} of a dependency is open: the dependency is deemed down and the invocations
+ * are rejected without being attempted.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class CircuitOpenException extends InvocationRejectedException {
+
+    public CircuitOpenException(final String message) {
+        super(message);
+    }
+
+    /**
+     * Stackless, as thrown for every invocation while the circuit is open: the rejection should cost next to nothing.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The {@link Bulkhead} of a dependency: a non blocking semaphore, whose waiters are queued callbacks run once a permit
+ * is handed over to them, rather than parked threads.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Compartment {
+    private final Dependency dependency;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxQueueWaitNanos;
+    private final StripedCounter rejections;
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    Compartment(final Dependency dependency, final int maxConcurrent, final int maxQueued,
+                final long maxQueueWaitNanos, final StripedCounter rejections) {
+        this.dependency = dependency;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = maxQueued;
+        this.maxQueueWaitNanos = maxQueueWaitNanos;
+        this.rejections = rejections;
+    }
+
+    int maxConcurrent() {
+        return maxConcurrent;
+    }
+
+    int inUse() {
+        return inUse.get();
+    }
+
+    int queued() {
+        return queued.get();
+    }
+
+    boolean tryAcquire() {
+        while (true) {
+            final int current = inUse.get();
+            if (current >= maxConcurrent) {
+                return false;
+            }
+            if (inUse.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a permit, which is handed over to the first waiter if any.
+     */
+    void release() {
+        while (true) {
+            final Waiter waiter = waiters.poll();
+            if (waiter != null) {
+                queued.decrementAndGet();
+                if (waiter.claim()) {
+                    waiter.onPermit.run();
+                    return;
+                }
+                continue;
+            }
+            inUse.decrementAndGet();
+            // A waiter may have been queued after the poll, in which case the permit is taken back for it
+            if (waiters.isEmpty() || !tryAcquire()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues the given callback, which is run once a permit is handed over to it (from the thread releasing the
+     * permit), or fails with a {@link BulkheadFullException} when the queue is full.
+     *
+     * @param onTimeout run instead of onPermit when the max queue wait elapsed
+     */
+    void enqueue(final Runnable onPermit, final Runnable onTimeout, final ScheduledExecutorService scheduler) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw reject();
+        }
+        final Waiter waiter = new Waiter(onPermit);
+        waiters.add(waiter);
+        if (maxQueueWaitNanos > 0) {
+            scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (waiter.claim()) {
+                        if (waiters.remove(waiter)) {
+                            queued.decrementAndGet();
+                        }
+                        rejections.inc();
+                        onTimeout.run();
+                    }
+                }
+            }, maxQueueWaitNanos, NANOSECONDS);
+        }
+        // The permits may have been released in between, in which case one is handed over to the first waiter
+        if (tryAcquire()) {
+            release();
+        }
+    }
+
+    BulkheadFullException reject() {
+        rejections.inc();
+        return new BulkheadFullException(String.format("Bulkhead of %s is full (%d concurrent invocations)",
+                dependency, maxConcurrent));
+    }
+
+    private static final class Waiter {
+        private final Runnable onPermit;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        private Waiter(final Runnable onPermit) {
+            this.onPermit = onPermit;
+        }
+
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
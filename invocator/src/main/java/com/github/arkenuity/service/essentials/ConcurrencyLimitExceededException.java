@@ -0,0 +1,16 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when the invocations in flight of a dependency already reached its {@link AdaptiveConcurrency} limit.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class ConcurrencyLimitExceededException extends InvocationRejectedException {
+
+    public ConcurrencyLimitExceededException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,173 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The {@link AdaptiveConcurrency} limit of a dependency, a Vegas style estimation: the number of invocations queued
+ * downstream is estimated as <code>limit * (1 - minLatency / latency)</code>, the limit grows while the estimated
+ * queue is below alpha and shrinks once above beta (both growing with the log of the limit).
+ * <p>
+ * The limit, the lowest latency and the invocations in flight are atomics updated through CAS loops, no lock is taken.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class ConcurrencyLimiter {
+    /** The lowest latency is probed again after so many samples, as the dependency may have gotten slower. */
+    private static final int PROBE_SAMPLES = 1000;
+
+    private final Dependency dependency;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final AtomicLong limit;
+    private final AtomicLong minLatency = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicInteger samples = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final StripedCounter limited;
+
+    ConcurrencyLimiter(final Dependency dependency, final AdaptiveConcurrency config) {
+        this.dependency = dependency;
+        this.minLimit = Math.max(1, config.minLimit());
+        this.maxLimit = Math.max(minLimit, config.maxLimit());
+        this.backoffRatio = Math.min(1, Math.max(0.1, config.backoffRatio()));
+        this.limit = new AtomicLong(Double.doubleToLongBits(
+                Math.min(maxLimit, Math.max(minLimit, config.initialLimit()))));
+        limited = dependency.counter("Concurrency-Limited");
+        Metrics.newGauge(dependency.metricName("Concurrency-Limit"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return limit();
+            }
+        });
+        Metrics.newGauge(dependency.metricName("Concurrency-In-Flight"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return inFlight.get();
+            }
+        });
+    }
+
+    int limit() {
+        return (int) Double.longBitsToDouble(limit.get());
+    }
+
+    /**
+     * Admits an invocation if the invocations in flight are below the limit, the outcome of an admitted invocation
+     * must be reported through {@link #track(ListenableFuture, InvocationContext, Failures)}.
+     */
+    boolean tryAcquire() {
+        final int max = limit();
+        while (true) {
+            final int current = inFlight.get();
+            if (current >= max) {
+                limited.inc();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    ConcurrencyLimitExceededException reject() {
+        return new ConcurrencyLimitExceededException(String.format("Concurrency limit of %s reached (%d in flight)",
+                dependency, limit()));
+    }
+
+    /**
+     * Releases the admitted invocation once the future completes, its latency and outcome adjusting the limit. Only
+     * the outcomes telling about the dependency are sampled: the invocations cancelled as they lost a hedged race or
+     * their caller gave up are not, nor the ones rejected without reaching the dependency; the ones which timed out
+     * are sampled as failed.
+     */
+    void track(final ListenableFuture<?> future, final InvocationContext context, final Failures failures) {
+        final long start = System.nanoTime();
+        final int admittedInFlight = inFlight.get();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                inFlight.decrementAndGet();
+                final long latency = System.nanoTime() - start;
+                if (future.isCancelled()) {
+                    if (context.isTimedOut()) {
+                        sample(latency, admittedInFlight, true);
+                    }
+                    return;
+                }
+                final Throwable failure = failure(future);
+                if (failure == null) {
+                    sample(latency, admittedInFlight, false);
+                } else if (fromDependency(failures.kind(failure))) {
+                    sample(latency, admittedInFlight, true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    /**
+     * Releases an admitted invocation which was not dispatched.
+     */
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    private void sample(final long latency, final int admittedInFlight, final boolean failed) {
+        if (samples.incrementAndGet() % PROBE_SAMPLES == 0) {
+            minLatency.set(latency);
+        } else {
+            long min = minLatency.get();
+            while (latency < min && !minLatency.compareAndSet(min, latency)) {
+                min = minLatency.get();
+            }
+        }
+        while (true) {
+            final long bits = limit.get();
+            final double current = Double.longBitsToDouble(bits);
+            final double next;
+            if (failed) {
+                next = current * backoffRatio;
+            } else if (admittedInFlight * 2 < current) {
+                return; // Not enough load to tell anything about the limit
+            } else {
+                final double queue = current * (1 - (double) minLatency.get() / Math.max(1, latency));
+                final double log = Math.max(1, Math.log10(current));
+                if (queue <= 3 * log) {
+                    next = current + log;
+                } else if (queue > 6 * log) {
+                    next = current - log;
+                } else {
+                    return;
+                }
+            }
+            final double bounded = Math.min(maxLimit, Math.max(minLimit, next));
+            if (bounded == current || limit.compareAndSet(bits, Double.doubleToLongBits(bounded))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * The cause of the failure of the completed future, null when it succeeded.
+     */
+    private static Throwable failure(final ListenableFuture<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (final ExecutionException e) {
+            return e.getCause();
+        } catch (final Exception e) {
+            return e;
+        }
+    }
+
+    private static boolean fromDependency(final FailureKind kind) {
+        return kind == FailureKind.TIMEOUT || kind == FailureKind.CONNECT || kind == FailureKind.APPLICATION;
+    }
+}
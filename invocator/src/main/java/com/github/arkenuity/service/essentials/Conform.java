@@ -15,10 +15,76 @@ import java.util.concurrent.TimeUnit;
 @Target(ElementType.METHOD)
 public @interface Conform {
 
+    /**
+     * Number of retries after the first attempt failed or timed out.
+     */
     int retryCount() default 0;
 
+    /**
+     * Time to wait for each attempt, no timeout when 0.
+     */
     long maxWaitTime() default 0;
 
     TimeUnit maxWaitTimeUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Whether a timed out attempt, which is always cancelled, is interrupted if already running.
+     */
+    boolean interruptOnTimeout() default true;
+
+    /**
+     * Delay before the first retry, retries are attempted right away when 0.
+     */
+    long backoff() default 0;
+
+    /**
+     * Factor by which the delay grows for each subsequent retry.
+     */
+    double backoffMultiplier() default 2;
+
+    /**
+     * Upper bound of the delay between two attempts, not bounded when 0.
+     */
+    long maxBackoff() default 0;
+
+    TimeUnit backoffUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Fraction (between 0 and 1) of the delay which is randomized, so that the callers failing together do not retry
+     * together: a delay d is drawn from [d * (1 - jitter), d].
+     */
+    double jitter() default 0;
+
+    /**
+     * Delay after which an attempt still running is hedged: the Callable is executed a second time, the first
+     * execution to succeed wins and the other one is cancelled. Meant for idempotent calls only, no hedging when 0
+     * (unless {@link #hedgeAfterQuantile()} is set).
+     */
+    long hedgeAfter() default 0;
+
+    TimeUnit hedgeAfterUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Quantile (e.g. 0.95) of the latencies observed by the {@link Instrumented} success timer used as the hedge
+     * delay, {@link #hedgeAfter()} applies until enough latencies have been observed.
+     */
+    double hedgeAfterQuantile() default 0;
+
+    /**
+     * Maximum number of hedges in flight for the {@link Instrumented} method, not bounded when 0.
+     */
+    int maxHedgesInFlight() default 16;
+
+    /**
+     * Ratio of the successful calls of the {@link Instrumented} method (e.g. 0.1) which may be retried over the
+     * last 10 seconds, on top of {@link #minRetriesPerSecond()}; once exceeded, the failed invocations are not retried.
+     * Retries are not budgeted when 0.
+     */
+    double retryBudget() default 0;
+
+    /**
+     * Retries per second allowed by the {@link #retryBudget()} regardless of the successful calls.
+     */
+    int minRetriesPerSecond() default 10;
 }
 
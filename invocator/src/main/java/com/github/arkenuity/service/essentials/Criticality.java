@@ -0,0 +1,71 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.Callable;
+
+/**
+ * The criticality class of an invocation, which an engine with priority lanes (see
+ * {@link ExecutionEngine.Builder#strictPriorityLanes()}) schedules by: the more critical invocations are run first,
+ * or given a larger share of the threads, and the least critical ones are shed first once the engine is overloaded.
+ * <p>
+ * The criticality of an invocation is either declared by {@link Prioritized}, or the one the calling thread runs
+ * under, which is propagated to the invocations made by its Callable:
+ *
+ * <pre>
+ *    Criticality.BATCH.call(new Callable&lt;Void&gt;() {
+ *        public Void call() {
+ *            // Invoked as BATCH
+ *            ServiceInvocation.execute(reindexCallable);
+ *            ...
+ *        }});
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public enum Criticality {
+    /** User facing invocations, whose failure is visible. */
+    CRITICAL,
+    DEFAULT,
+    /** Batch invocations, which can be retried later on. */
+    BATCH,
+    /** Background invocations (prefetching, warming etc), which can be dropped. */
+    BACKGROUND;
+
+    private static final ThreadLocal<Criticality> CURRENT = new ThreadLocal<Criticality>();
+
+    /**
+     * The criticality of the calling thread, {@link #DEFAULT} when none.
+     */
+    public static Criticality current() {
+        final Criticality current = CURRENT.get();
+        return current == null ? DEFAULT : current;
+    }
+
+    /**
+     * Calls the Callable under this criticality, as the one of its invocations.
+     */
+    public <T> T call(final Callable<T> callable) throws Exception {
+        return bind(callable).call();
+    }
+
+    /**
+     * Binds this criticality to the Callable, as the current one of the thread calling it.
+     */
+    <T> Callable<T> bind(final Callable<T> callable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Criticality previous = CURRENT.get();
+                CURRENT.set(Criticality.this);
+                try {
+                    return callable.call();
+                } finally {
+                    if (previous == null) {
+                        CURRENT.remove();
+                    } else {
+                        CURRENT.set(previous);
+                    }
+                }
+            }
+        };
+    }
+}
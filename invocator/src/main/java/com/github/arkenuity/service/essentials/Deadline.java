@@ -0,0 +1,102 @@
+package com.github.arkenuity.service.essentials;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which the caller needs its result, propagated from an invocation to the invocations made by its
+ * Callable: the attempts are timed out by the deadline (when earlier than their maxWaitTime), the retries are given up
+ * once it passed, and the invocations made once it passed are rejected with a {@link DeadlineExceededException}.
+ * <p>
+ * A deadline is current on the thread running an attempt of a Callable which has a maxWaitTime, or which was invoked
+ * under a deadline itself; a caller may also set one explicitly:
+ *
+ * <pre>
+ *    UserProfile profile = Deadline.after(200, TimeUnit.MILLISECONDS).call(new Callable&lt;UserProfile&gt;() {
+ *        public UserProfile call() {
+ *            // Both invocations share the 200ms
+ *            Account account = ServiceInvocation.execute(accountCallable);
+ *            return ServiceInvocation.execute(profileCallable(account));
+ *        }});
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    private final long expiresAt;
+
+    private Deadline(final long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public static Deadline after(final long timeout, final TimeUnit unit) {
+        checkNotNull(unit, "A non null TimeUnit should be passed.");
+        return new Deadline(System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    /**
+     * The deadline of the calling thread, null when none.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public long remaining(final TimeUnit unit) {
+        return unit.convert(remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return remainingNanos() <= 0;
+    }
+
+    /**
+     * Calls the Callable with this deadline as the current one of the calling thread, or the current one if earlier.
+     */
+    public <T> T call(final Callable<T> callable) throws Exception {
+        return earliest(current(), this).bind(callable).call();
+    }
+
+    long remainingNanos() {
+        return expiresAt - System.nanoTime();
+    }
+
+    DeadlineExceededException exceeded(final Object dependency) {
+        return new DeadlineExceededException(String.format("Deadline of the invocation of %s has passed", dependency));
+    }
+
+    /**
+     * Binds the deadline to the Callable, as the current one of the thread calling it.
+     */
+    <T> Callable<T> bind(final Callable<T> callable) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                final Deadline previous = CURRENT.get();
+                CURRENT.set(Deadline.this);
+                try {
+                    return callable.call();
+                } finally {
+                    if (previous == null) {
+                        CURRENT.remove();
+                    } else {
+                        CURRENT.set(previous);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * The earliest of the deadlines, either may be null.
+     */
+    static Deadline earliest(final Deadline one, final Deadline other) {
+        if (one == null || other == null) {
+            return one == null ? other : one;
+        }
+        return one.expiresAt - other.expiresAt <= 0 ? one : other;
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when the {@link Deadline} of the caller has already passed by the time an invocation (or one of its retries)
+ * would be submitted: nobody is waiting for its result any more, so the invocation is not attempted.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class DeadlineExceededException extends InvocationRejectedException {
+
+    public DeadlineExceededException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,267 @@
+package com.github.arkenuity.service.essentials;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * The work queue of an {@link ExecutionEngine} running the tasks by earliest {@link Deadline} first, rather than in
+ * submission order: once the threads are saturated, the tasks whose caller is about to give up run first, and the
+ * ones whose deadline passed while queued are dropped when they reach a thread, as their result would not be read.
+ * The tasks without a deadline, including the ones submitted by other means than the invocations, are ordered as if
+ * due a default deadline after being queued, so that a steady flow of tasks with a deadline cannot starve them.
+ * <p>
+ * The queue is bounded by a permit per queued task, taken by the offer and released by the removal of the task, so
+ * that concurrent offers cannot overrun the capacity; the tasks offered once full are rejected.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class DeadlineQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final Comparator<Queued> EARLIEST_DEADLINE_FIRST = new Comparator<Queued>() {
+        @Override
+        public int compare(final Queued one, final Queued other) {
+            if (one.dueAt != other.dueAt) {
+                return one.dueAt - other.dueAt < 0 ? -1 : 1;
+            }
+            return one.sequence < other.sequence ? -1 : one.sequence == other.sequence ? 0 : 1;
+        }
+    };
+
+    private final String name;
+    private final long defaultDeadlineNanos;
+    private final PriorityBlockingQueue<Queued> queue;
+    private final Semaphore permits;
+    private final AtomicLong sequence = new AtomicLong();
+    private final StripedCounter dropped;
+    private final StripedCounter expired;
+    private final LatencyHistogram queueWait;
+
+    DeadlineQueue(final String name, final int capacity, final long defaultDeadlineNanos) {
+        this.name = name;
+        this.defaultDeadlineNanos = defaultDeadlineNanos;
+        this.queue = new PriorityBlockingQueue<Queued>(Math.max(1, Math.min(capacity, 1024)),
+                EARLIEST_DEADLINE_FIRST);
+        this.permits = new Semaphore(capacity);
+        dropped = MetricsView.counter(new MetricName(ExecutionEngine.class, "Dropped-Tasks", name));
+        expired = MetricsView.counter(new MetricName(ExecutionEngine.class, "Expired-Tasks", name));
+        queueWait = MetricsView.latency(new MetricName(ExecutionEngine.class, "Queue-Wait-Time", name), null);
+    }
+
+    @Override
+    public boolean offer(final Runnable task) {
+        checkNotNull(task);
+        if (!permits.tryAcquire()) {
+            dropped.inc();
+            return false;
+        }
+        queue.offer(queued(task));
+        return true;
+    }
+
+    @Override
+    public boolean offer(final Runnable task, final long timeout, final TimeUnit unit) throws InterruptedException {
+        checkNotNull(task);
+        if (!permits.tryAcquire(timeout, unit)) {
+            dropped.inc();
+            return false;
+        }
+        queue.offer(queued(task));
+        return true;
+    }
+
+    @Override
+    public void put(final Runnable task) throws InterruptedException {
+        checkNotNull(task);
+        permits.acquire();
+        queue.offer(queued(task));
+    }
+
+    /**
+     * The task as queued, due by the deadline of its invocation, or by the default deadline from now when none.
+     */
+    private Queued queued(final Runnable task) {
+        final boolean deadlined = task instanceof Task && ((Task) task).deadlined;
+        return new Queued(task, deadlined ? ((Task) task).expiresAt : System.nanoTime() + defaultDeadlineNanos,
+                sequence.getAndIncrement());
+    }
+
+    @Override
+    public Runnable poll() {
+        return released(queue.poll());
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return released(queue.poll(timeout, unit));
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        return released(queue.take());
+    }
+
+    private Runnable released(final Queued queued) {
+        if (queued == null) {
+            return null;
+        }
+        permits.release();
+        return queued.task;
+    }
+
+    @Override
+    public Runnable peek() {
+        final Queued queued = queue.peek();
+        return queued != null ? queued.task : null;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return permits.availablePermits();
+    }
+
+    @Override
+    public boolean remove(final Object task) {
+        if (task instanceof Runnable && queue.remove(new Queued((Runnable) task, 0, 0))) {
+            permits.release();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        return queue.size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> to) {
+        return drainTo(to, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> to, final int maxElements) {
+        final List<Queued> drained = new ArrayList<Queued>();
+        queue.drainTo(drained, maxElements);
+        if (!drained.isEmpty()) {
+            permits.release(drained.size());
+        }
+        for (final Queued queued : drained) {
+            to.add(queued.task);
+        }
+        return drained.size();
+    }
+
+    /**
+     * Iterates over a snapshot of the queued tasks, in no particular order.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        final Iterator<Queued> iterator = queue.iterator();
+        return new Iterator<Runnable>() {
+            private Runnable current;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Runnable next() {
+                current = iterator.next().task;
+                return current;
+            }
+
+            @Override
+            public void remove() {
+                DeadlineQueue.this.remove(current);
+            }
+        };
+    }
+
+    /**
+     * The task running the Callable unless the deadline passed by the time it starts, in which case it fails with a
+     * {@link DeadlineExceededException}.
+     */
+    <T> Task task(final Callable<T> callable, final Deadline deadline) {
+        return new Task(callable, deadline);
+    }
+
+    /**
+     * A queued task, along with the time it is due by; equal to any other holding the same task, to be removed.
+     */
+    private static final class Queued {
+        private final Runnable task;
+        private final long dueAt;
+        private final long sequence;
+
+        private Queued(final Runnable task, final long dueAt, final long sequence) {
+            this.task = task;
+            this.dueAt = dueAt;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Queued && ((Queued) other).task == task;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(task);
+        }
+    }
+
+    final class Task implements Runnable {
+        private final ListenableFutureTask<?> future;
+        private final boolean deadlined;
+        private final long expiresAt;
+        private final long queuedAt = System.nanoTime();
+        private boolean expiredAtStart; // Evaluated once by the running thread, before running the future
+
+        private <T> Task(final Callable<T> callable, final Deadline deadline) {
+            this.deadlined = deadline != null;
+            this.expiresAt = deadlined ? queuedAt + deadline.remainingNanos() : 0;
+            this.future = ListenableFutureTask.create(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (expiredAtStart) {
+                        throw new DeadlineExceededException(String.format(
+                                "Deadline passed while queued on the %s engine", name));
+                    }
+                    return callable.call();
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> ListenableFutureTask<T> future() {
+            return (ListenableFutureTask<T>) future;
+        }
+
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            queueWait.record(now - queuedAt);
+            // Either timed out by its invocation already, or failing right away
+            expiredAtStart = deadlined && now - expiresAt >= 0;
+            if (expiredAtStart) {
+                expired.inc();
+            }
+            future.run();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.arkenuity.service.essentials;
+
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Classifies the failures by the JDK and invocation exceptions they are caused by: timeouts (including the socket
+ * timeouts and the passed deadlines), connect failures, rejections and open circuits; any other failure is an
+ * application failure, including the other InterruptedIOExceptions, raised when the invoking thread is interrupted.
+ * <p>
+ * The timeouts, connect and application failures are retried, whereas the rejections are not: retrying an invocation
+ * rejected by an open circuit or a saturated bulkhead, rate or concurrency limit only adds to the load it was rejected
+ * for. Meant to be extended to classify the exceptions of a given client library, e.g. as {@link FailureKind#PERMANENT}
+ * failures, which are not retried either.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class DefaultFailureClassifier implements FailureClassifier {
+
+    @Override
+    public FailureKind classify(final Class<? extends Throwable> rootCause) {
+        if (TimeoutException.class.isAssignableFrom(rootCause) ||
+            SocketTimeoutException.class.isAssignableFrom(rootCause) ||
+            DeadlineExceededException.class.isAssignableFrom(rootCause)) {
+            return FailureKind.TIMEOUT;
+        }
+        if (ConnectException.class.isAssignableFrom(rootCause) ||
+            NoRouteToHostException.class.isAssignableFrom(rootCause) ||
+            UnknownHostException.class.isAssignableFrom(rootCause)) {
+            return FailureKind.CONNECT;
+        }
+        if (CircuitOpenException.class.isAssignableFrom(rootCause)) {
+            return FailureKind.CIRCUIT_OPEN;
+        }
+        if (InvocationRejectedException.class.isAssignableFrom(rootCause) ||
+            RejectedExecutionException.class.isAssignableFrom(rootCause)) {
+            return FailureKind.REJECTED;
+        }
+        if (CancellationException.class.isAssignableFrom(rootCause)) {
+            return FailureKind.CANCELLED;
+        }
+        return FailureKind.APPLICATION;
+    }
+
+    @Override
+    public boolean retryable(final Class<? extends Throwable> rootCause, final FailureKind kind) {
+        return kind == FailureKind.TIMEOUT || kind == FailureKind.CONNECT || kind == FailureKind.APPLICATION;
+    }
+}
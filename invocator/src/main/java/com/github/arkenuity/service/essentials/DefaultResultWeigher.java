@@ -0,0 +1,31 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Weighs the collections and maps by their number of elements, the character sequences and the arrays by their
+ * length, and any other result 1. Meant to be extended to weigh the results of a given client library.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class DefaultResultWeigher implements ResultWeigher {
+
+    @Override
+    public int weigh(final Object result) {
+        final int weight;
+        if (result instanceof Collection) {
+            weight = ((Collection<?>) result).size();
+        } else if (result instanceof Map) {
+            weight = ((Map<?, ?>) result).size();
+        } else if (result instanceof CharSequence) {
+            weight = ((CharSequence) result).length();
+        } else if (result != null && result.getClass().isArray()) {
+            weight = Array.getLength(result);
+        } else {
+            weight = 1;
+        }
+        return Math.max(1, weight);
+    }
+}
@@ -0,0 +1,235 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Optional;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * A service method as identified by {@link Instrumented}, holding the state shared by all the invocations of the
+ * method; the invocations which are not instrumented share a global dependency.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Dependency {
+    private static final ConcurrentMap<String, Dependency> DEPENDENCIES = new ConcurrentHashMap<String, Dependency>();
+    private static final Dependency GLOBAL = new Dependency(ServiceInvocation.class, null);
+
+    private final Class<?> clazz;
+    private final String method;
+    private Orphans orphans;
+    private Hedges hedges;
+    private SingleFlight singleFlight;
+    private Failures failures;
+    private RetryBudget retryBudget;
+    private volatile Compartment bulkhead;
+    private boolean bulkheadConfigured;
+    private StripedCounter bulkheadRejections;
+    private volatile Breaker breaker;
+    private volatile ConcurrencyLimiter limiter;
+    private volatile TokenBucket rateLimit;
+    private ResultCache cache;
+
+    private Dependency(final Class<?> clazz, final String method) {
+        this.clazz = clazz;
+        this.method = method;
+    }
+
+    static Dependency of(final Optional<Instrumented> instrumented) {
+        return instrumented.isPresent() ? of(instrumented.get().clazz(), instrumented.get().method()) : GLOBAL;
+    }
+
+    static Dependency of(final Class<?> clazz, final String method) {
+        final String key = clazz.getName() + "#" + method;
+        final Dependency dependency = DEPENDENCIES.get(key);
+        if (dependency != null) {
+            return dependency;
+        }
+        final Dependency created = new Dependency(clazz, method);
+        final Dependency existing = DEPENDENCIES.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    MetricName metricName(final String name) {
+        return new MetricName(clazz, name, method);
+    }
+
+    @Override
+    public String toString() {
+        return method == null ? clazz.getSimpleName() : clazz.getSimpleName() + "." + method;
+    }
+
+    /**
+     * The counter of the given name, created and exported once, so that the invocations record into a handle
+     * rather than looking the metric up.
+     */
+    StripedCounter counter(final String name) {
+        return MetricsView.counter(metricName(name));
+    }
+
+    /**
+     * The latency histogram of the given name, created and exported once as configured by the first
+     * {@link Instrumented} annotation resolved, or with the defaults when none.
+     */
+    LatencyHistogram histogram(final String name, final Instrumented config) {
+        return MetricsView.latency(metricName(name), config);
+    }
+
+    synchronized Orphans orphans() {
+        if (orphans == null) {
+            orphans = new Orphans(this);
+        }
+        return orphans;
+    }
+
+    synchronized Hedges hedges() {
+        if (hedges == null) {
+            hedges = new Hedges(this);
+        }
+        return hedges;
+    }
+
+    /**
+     * The retry budget of the method as declared by the first {@link Conform} annotation resolved.
+     */
+    synchronized RetryBudget retryBudget(final Conform annotation) {
+        if (retryBudget == null) {
+            retryBudget = new RetryBudget(this, annotation);
+        }
+        return retryBudget;
+    }
+
+    /**
+     * The classification of the failures of the method, by the classifier declared by the first {@link Instrumented}
+     * annotation resolved.
+     */
+    synchronized Failures failures(final Class<? extends FailureClassifier> classifier) {
+        if (failures == null) {
+            failures = new Failures(classifier);
+        }
+        return failures;
+    }
+
+    synchronized SingleFlight singleFlight() {
+        if (singleFlight == null) {
+            singleFlight = new SingleFlight(this);
+        }
+        return singleFlight;
+    }
+
+    /**
+     * The bulkhead limiting the concurrent invocations of the method, null when not isolated.
+     */
+    Compartment bulkhead() {
+        return bulkhead;
+    }
+
+    /**
+     * Isolates the method as declared by a {@link Bulkhead} annotation, unless already configured (a programmatic
+     * configuration takes precedence over the annotations).
+     */
+    synchronized void isolate(final Bulkhead annotation) {
+        if (!bulkheadConfigured) {
+            isolate(annotation.maxConcurrent(), annotation.maxQueued(),
+                    annotation.maxQueueWaitUnit().toNanos(annotation.maxQueueWait()));
+        }
+    }
+
+    synchronized void isolate(final int maxConcurrent, final int maxQueued, final long maxQueueWaitNanos) {
+        if (bulkheadRejections == null) {
+            bulkheadRejections = counter("Bulkhead-Rejected");
+            Metrics.newGauge(metricName("Bulkhead-In-Use"), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    final Compartment current = bulkhead;
+                    return current == null ? 0 : current.inUse();
+                }
+            });
+            Metrics.newGauge(metricName("Bulkhead-Queued"), new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    final Compartment current = bulkhead;
+                    return current == null ? 0 : current.queued();
+                }
+            });
+            Metrics.newGauge(metricName("Bulkhead-Saturation"), new Gauge<Double>() {
+                @Override
+                public Double value() {
+                    final Compartment current = bulkhead;
+                    return current == null ? 0 : (double) current.inUse() / current.maxConcurrent();
+                }
+            });
+        }
+        bulkhead = new Compartment(this, maxConcurrent, maxQueued, maxQueueWaitNanos, bulkheadRejections);
+        bulkheadConfigured = true;
+    }
+
+    /**
+     * The circuit breaker of the method, null when not protected.
+     */
+    Breaker breaker() {
+        return breaker;
+    }
+
+    /**
+     * Protects the method with the circuit breaker declared by a {@link CircuitBreaker} annotation, unless already
+     * protected.
+     */
+    synchronized void protect(final CircuitBreaker annotation) {
+        if (breaker == null) {
+            breaker = new Breaker(this, annotation);
+        }
+    }
+
+    /**
+     * The adaptive concurrency limit of the method, null when not limited.
+     */
+    ConcurrencyLimiter limiter() {
+        return limiter;
+    }
+
+    /**
+     * Limits the concurrency of the method as declared by a {@link AdaptiveConcurrency} annotation, unless already
+     * limited.
+     */
+    synchronized void limit(final AdaptiveConcurrency annotation) {
+        if (limiter == null) {
+            limiter = new ConcurrencyLimiter(this, annotation);
+        }
+    }
+
+    /**
+     * The rate limit of the method, null when not limited.
+     */
+    TokenBucket rateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Limits the rate of the method as declared by a {@link RateLimited} annotation, unless already limited.
+     */
+    synchronized void rateLimit(final RateLimited annotation) {
+        if (rateLimit == null) {
+            rateLimit = new TokenBucket(this, annotation);
+        }
+    }
+
+    /**
+     * The cache of the results of the method as declared by a {@link Cached} annotation, created by the first
+     * annotation resolved.
+     */
+    synchronized ResultCache cache(final Cached annotation, final Failures failures) {
+        if (cache == null) {
+            cache = new ResultCache(this, annotation, failures);
+        }
+        return cache;
+    }
+
+    synchronized void removeBulkhead() {
+        bulkhead = null;
+        bulkheadConfigured = true;
+    }
+}
@@ -0,0 +1,362 @@
+package com.github.arkenuity.service.essentials;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The engine on which {@link ServiceInvocation} runs the submitted {@link java.util.concurrent.Callable}s.
+ * <p>
+ * An engine is meant to be created once and shared by all the invocations of a process (see
+ * {@link ServiceInvocation#defaultEngine()}), or by a group of invocations which need their own pool. Engines are
+ * either built with {@link #builder()}, which creates a bounded pool of named daemon threads, or wrap an executor
+ * owned by the caller through {@link #wrap(ExecutorService)}.
+ * <p>
+ * Since the wrapped service calls mostly block on I/O, an engine may run each Callable on its own virtual thread (see
+ * {@link Builder#virtualThreads()}), in which case the number of concurrent invocations is not bounded by a pool size.
+ * The default engine uses virtual threads when the <code>service.invocation.threads</code> system property is set to
+ * <code>virtual</code>.
+ *
+ * <pre>
+ *    ExecutionEngine engine = ExecutionEngine.builder().named("profile-service").maxThreads(64).build();
+ *    UserProfile profile = ServiceInvocation.execute(callable, engine);
+ *    ...
+ *    engine.shutdown();
+ *    engine.awaitTermination(5, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public final class ExecutionEngine {
+
+    static final String DEFAULT_NAME = "service-invocation";
+    static final int DEFAULT_MAX_THREADS = 256;
+    static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+    static final long DEFAULT_DEADLINE_SECONDS = 1;
+    static final String THREADS_PROPERTY = "service.invocation.threads";
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat(DEFAULT_NAME + "-scheduler-%d").setDaemon(true).build());
+
+    private final ListeningExecutorService service;
+    private final boolean inlineUntimed;
+    private final DeadlineQueue deadlines;
+    private final LaneQueue lanes;
+
+    private ExecutionEngine(final ListeningExecutorService service, final boolean inlineUntimed,
+                            final DeadlineQueue deadlines, final LaneQueue lanes) {
+        this.service = service;
+        this.inlineUntimed = inlineUntimed;
+        this.deadlines = deadlines;
+        this.lanes = lanes;
+    }
+
+    /**
+     * Wraps an executor owned by the caller. Note that the lifecycle methods of the engine act on the given executor.
+     */
+    public static ExecutionEngine wrap(final ExecutorService executor) {
+        checkNotNull(executor, "A non null ExecutorService instance should be passed.");
+        return new ExecutionEngine(MoreExecutors.listeningDecorator(executor), false, null, null);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Whether the running JVM supports virtual threads (Java 21 or later).
+     */
+    public static boolean virtualThreadsSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (final NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The engine built with the defaults, running on virtual threads if asked through the
+     * <code>service.invocation.threads</code> system property.
+     */
+    static ExecutionEngine defaults() {
+        final Builder builder = builder();
+        if ("virtual".equalsIgnoreCase(System.getProperty(THREADS_PROPERTY))) {
+            builder.virtualThreads();
+        }
+        return builder.build();
+    }
+
+    ListeningExecutorService service() {
+        return service;
+    }
+
+    /**
+     * Submits the Callable of an invocation, which is queued by its deadline when the engine runs the earliest
+     * deadline first, or in the lane of its criticality when the engine has priority lanes.
+     */
+    <T> ListenableFuture<T> submit(final Callable<T> callable, final Deadline deadline,
+                                   final Criticality criticality) {
+        if (deadlines != null) {
+            final DeadlineQueue.Task task = deadlines.task(callable, deadline);
+            service.execute(task);
+            return task.future();
+        }
+        if (lanes != null) {
+            final LaneQueue.Task task = lanes.task(callable, criticality);
+            service.execute(task);
+            return task.future();
+        }
+        return service.submit(callable);
+    }
+
+    /**
+     * Whether the blocking invocations without a maxWaitTime run on the calling thread.
+     */
+    boolean inlineUntimed() {
+        return inlineUntimed;
+    }
+
+    /**
+     * The scheduler firing the timers (timeouts etc) of the invocations, it is shared by all the engines and must only
+     * run short, non blocking tasks.
+     */
+    ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
+    /**
+     * Initiates a graceful shutdown, the tasks already submitted (running or queued) are drained, whereas new
+     * invocations are rejected.
+     */
+    public void shutdown() {
+        service.shutdown();
+    }
+
+    /**
+     * Blocks until all the tasks have completed after a {@link #shutdown()}, or the timeout occurs.
+     *
+     * @return true if the engine terminated and false if the timeout elapsed before termination
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return service.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Shuts the engine down gracefully, waiting at most the given time for the submitted tasks to drain, after which
+     * the tasks still running are interrupted.
+     *
+     * @return true if the engine drained within the given time
+     */
+    public boolean shutdownGracefully(final long timeout, final TimeUnit unit) {
+        shutdown();
+        try {
+            if (awaitTermination(timeout, unit)) {
+                return true;
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        service.shutdownNow();
+        return false;
+    }
+
+    public boolean isShutdown() {
+        return service.isShutdown();
+    }
+
+    public boolean isTerminated() {
+        return service.isTerminated();
+    }
+
+    /**
+     * Builds an engine backed by a {@link ThreadPoolExecutor} with a bounded number of named daemon threads and a
+     * bounded work queue. Idle threads (core ones included) are retired after the keep alive time.
+     * <p>
+     * Alternatively the engine may start a new virtual thread per Callable, in which case the pool sizing (maxThreads,
+     * queueCapacity and keepAlive) does not apply.
+     */
+    public static final class Builder {
+        private String name = DEFAULT_NAME;
+        private boolean virtualThreads;
+        private boolean inlineUntimed;
+        private boolean earliestDeadlineFirst;
+        private long defaultDeadlineNanos = TimeUnit.SECONDS.toNanos(DEFAULT_DEADLINE_SECONDS);
+        private Boolean strictPriority;
+        private final int[] laneCapacities = new int[Criticality.values().length];
+        private final int[] laneWeights = { 8, 4, 2, 1 };
+        private int maxThreads = DEFAULT_MAX_THREADS;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private long keepAlive = DEFAULT_KEEP_ALIVE_SECONDS;
+        private TimeUnit keepAliveUnit = TimeUnit.SECONDS;
+
+        private Builder() {}
+
+        /**
+         * Prefix of the thread names, threads are named as <code>name-N</code>.
+         */
+        public Builder named(final String name) {
+            this.name = checkNotNull(name, "A non null name should be passed.");
+            return this;
+        }
+
+        public Builder maxThreads(final int maxThreads) {
+            checkArgument(maxThreads > 0, "maxThreads should be positive.");
+            this.maxThreads = maxThreads;
+            return this;
+        }
+
+        /**
+         * Number of tasks which may wait for a thread, once exceeded invocations are rejected.
+         */
+        public Builder queueCapacity(final int queueCapacity) {
+            checkArgument(queueCapacity > 0, "queueCapacity should be positive.");
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder keepAlive(final long keepAlive, final TimeUnit unit) {
+            checkArgument(keepAlive > 0, "keepAlive should be positive.");
+            this.keepAlive = keepAlive;
+            this.keepAliveUnit = checkNotNull(unit);
+            return this;
+        }
+
+        /**
+         * Runs each Callable on its own virtual thread, requires Java 21 or later at runtime.
+         *
+         * @see ExecutionEngine#virtualThreadsSupported()
+         */
+        public Builder virtualThreads() {
+            this.virtualThreads = true;
+            return this;
+        }
+
+        /**
+         * Runs the blocking invocations which do not need a timeout (no <code>&#064Conform(maxWaitTime)</code>) on
+         * the calling thread, rather than handing them to a pool thread while the caller waits for the result. The
+         * instrumentation and the retries are applied the same way, whereas the asynchronous invocations are not
+         * affected.
+         */
+        public Builder inlineUntimedCalls() {
+            this.inlineUntimed = true;
+            return this;
+        }
+
+        /**
+         * Queues the tasks waiting for a thread by the {@link Deadline} of their invocation, earliest first, rather
+         * than in submission order; the tasks whose deadline passed while queued are dropped once they reach a
+         * thread, failing with a {@link DeadlineExceededException}. The tasks without a deadline are ordered as if due
+         * a second after being queued. Does not apply to virtual threads, which are not queued.
+         */
+        public Builder earliestDeadlineFirst() {
+            this.earliestDeadlineFirst = true;
+            return this;
+        }
+
+        /**
+         * Queues the tasks by earliest deadline first, the tasks without a deadline being ordered as if due the given
+         * default deadline after being queued: the shorter it is, the sooner they run ahead of the tasks with a
+         * deadline.
+         */
+        public Builder earliestDeadlineFirst(final long defaultDeadline, final TimeUnit unit) {
+            checkArgument(defaultDeadline >= 0, "defaultDeadline should not be negative.");
+            this.earliestDeadlineFirst = true;
+            this.defaultDeadlineNanos = checkNotNull(unit).toNanos(defaultDeadline);
+            return this;
+        }
+
+        /**
+         * Queues the tasks waiting for a thread in a lane per {@link Criticality}, the most critical lane being
+         * always served first. Once the queue capacity is reached, the tasks of the least critical lanes are shed to
+         * make room for the more critical ones. Does not apply to virtual threads, which are not queued.
+         */
+        public Builder strictPriorityLanes() {
+            this.strictPriority = true;
+            return this;
+        }
+
+        /**
+         * Queues the tasks waiting for a thread in a lane per {@link Criticality}, the lanes being served in
+         * proportion to their weights (8, 4, 2 and 1 from the most critical lane by default), so that no lane is
+         * starved. Shedding is the same as with {@link #strictPriorityLanes()}.
+         */
+        public Builder weightedLanes() {
+            this.strictPriority = false;
+            return this;
+        }
+
+        /**
+         * Bounds the tasks queued in the lane of the given criticality (the queue capacity by default) and sets its
+         * weight for the {@link #weightedLanes()}.
+         */
+        public Builder lane(final Criticality criticality, final int queueCapacity, final int weight) {
+            checkNotNull(criticality, "A non null Criticality should be passed.");
+            checkArgument(queueCapacity > 0, "queueCapacity should be positive.");
+            checkArgument(weight > 0, "weight should be positive.");
+            laneCapacities[criticality.ordinal()] = queueCapacity;
+            laneWeights[criticality.ordinal()] = weight;
+            return this;
+        }
+
+        public ExecutionEngine build() {
+            if (virtualThreads) {
+                return new ExecutionEngine(MoreExecutors.listeningDecorator(newVirtualThreadExecutor(name)),
+                        inlineUntimed, null, null);
+            }
+            checkState(!earliestDeadlineFirst || strictPriority == null,
+                    "The earliest deadline first and the priority lanes are exclusive.");
+            final DeadlineQueue deadlines = earliestDeadlineFirst ? new DeadlineQueue(name, queueCapacity,
+                    defaultDeadlineNanos) : null;
+            final LaneQueue lanes = strictPriority != null ? new LaneQueue(name, strictPriority, queueCapacity,
+                    capacities(), laneWeights) : null;
+            final BlockingQueue<Runnable> queue = deadlines != null ? deadlines : lanes != null ? lanes :
+                new LinkedBlockingQueue<Runnable>(queueCapacity);
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, keepAlive, keepAliveUnit,
+                    queue, new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build());
+            executor.allowCoreThreadTimeOut(true);
+            return new ExecutionEngine(MoreExecutors.listeningDecorator(executor), inlineUntimed, deadlines, lanes);
+        }
+
+        private int[] capacities() {
+            final int[] capacities = new int[laneCapacities.length];
+            for (int lane = 0; lane < capacities.length; lane++) {
+                capacities[lane] = laneCapacities[lane] > 0 ? laneCapacities[lane] : queueCapacity;
+            }
+            return capacities;
+        }
+
+        /**
+         * The virtual thread API is looked up reflectively, so that the utility keeps running on the JVMs which
+         * predate it.
+         */
+        private static ExecutorService newVirtualThreadExecutor(final String name) {
+            try {
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+                final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (final ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("Virtual threads require Java 21 or later.", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Tells the kind of the failures of the invocations of a dependency, and whether they are worth retrying, from their
+ * root cause (the innermost cause of the failure). Declared per dependency through {@link Instrumented#classifier()},
+ * an implementation needs a public no argument constructor.
+ * <p>
+ * The classification is resolved once per class of root cause and cached, so it may only depend on the class.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public interface FailureClassifier {
+
+    FailureKind classify(Class<? extends Throwable> rootCause);
+
+    /**
+     * Whether a {@link Conform conformed} invocation failing with the given root cause, of the given kind, is retried.
+     */
+    boolean retryable(Class<? extends Throwable> rootCause, FailureKind kind);
+}
@@ -0,0 +1,27 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * The kinds of failures of the invocations, as told by a {@link FailureClassifier} from their root cause; the failures
+ * of an {@link Instrumented} method are counted per kind.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public enum FailureKind {
+    /** The dependency did not respond in time, or the deadline of the invocation passed. */
+    TIMEOUT,
+    /** The dependency could not be reached. */
+    CONNECT,
+    /** The invocation was rejected without being attempted, to protect the process or the dependency. */
+    REJECTED,
+    /** The invocation was rejected as the circuit of the dependency is open. */
+    CIRCUIT_OPEN,
+    /** The invocation was cancelled, by its caller or as the attempt was abandoned. */
+    CANCELLED,
+    /**
+     * The dependency failed in a way which will not go away on its own (not found, invalid request etc), as told by a
+     * classifier of the client library; such failures are not retried, and may be {@link Cached cached}.
+     */
+    PERMANENT,
+    /** Any other failure, raised by the dependency or the Callable itself. */
+    APPLICATION
+}
@@ -0,0 +1,58 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Throwables;
+
+/**
+ * The failures of a dependency as classified by its {@link FailureClassifier}, from their root cause; the
+ * classification is cached per class of root cause, so that classifying a failure is a walk down its causes and a
+ * concurrent map read.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Failures {
+    private final FailureClassifier classifier;
+    private final ConcurrentMap<Class<?>, Classification> classifications =
+        new ConcurrentHashMap<Class<?>, Classification>();
+
+    Failures(final Class<? extends FailureClassifier> classifier) {
+        try {
+            this.classifier = classifier.newInstance();
+        } catch (final Exception e) {
+            throw new IllegalArgumentException(String.format(
+                    "%s should have a public no argument constructor.", classifier.getName()), e);
+        }
+    }
+
+    FailureKind kind(final Throwable failure) {
+        return classify(failure).kind;
+    }
+
+    boolean retryable(final Throwable failure) {
+        return classify(failure).retryable;
+    }
+
+    private Classification classify(final Throwable failure) {
+        final Class<? extends Throwable> rootCause = Throwables.getRootCause(failure).getClass();
+        Classification classification = classifications.get(rootCause);
+        if (classification == null) {
+            final FailureKind classified = classifier.classify(rootCause);
+            final FailureKind kind = classified != null ? classified : FailureKind.APPLICATION;
+            classification = new Classification(kind, classifier.retryable(rootCause, kind));
+            classifications.put(rootCause, classification);
+        }
+        return classification;
+    }
+
+    private static final class Classification {
+        private final FailureKind kind;
+        private final boolean retryable;
+
+        private Classification(final FailureKind kind, final boolean retryable) {
+            this.kind = kind;
+            this.retryable = retryable;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Bounds the hedges in flight, and tracks the hedges issued, the ones which won the race and the ones skipped as
+ * too many hedges were in flight.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Hedges {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final StripedCounter hedged;
+    private final StripedCounter won;
+    private final StripedCounter skipped;
+
+    Hedges(final Dependency dependency) {
+        hedged = dependency.counter("Hedged-Attempts");
+        won = dependency.counter("Hedges-Won");
+        skipped = dependency.counter("Hedges-Skipped");
+        Metrics.newGauge(dependency.metricName("Hedges-In-Flight"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return inFlight.get();
+            }
+        });
+    }
+
+    boolean acquire(final int max) {
+        while (true) {
+            final int current = inFlight.get();
+            if (max > 0 && current >= max) {
+                skipped.inc();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                hedged.inc();
+                return true;
+            }
+        }
+    }
+
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    void won() {
+        won.inc();
+    }
+}
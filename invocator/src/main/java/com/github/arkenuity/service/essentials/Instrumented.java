@@ -4,6 +4,7 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
@@ -23,4 +24,46 @@ public @interface Instrumented {
 
     String method();
 
+    /**
+     * Whether the latencies are recorded to the {@link #significantDigits()} rather than to two significant digits,
+     * for the high quantiles (p99.9, p99.99) of the histograms to be as precise. Each histogram takes a fixed amount of
+     * memory, set by {@link #significantDigits()} and {@link #maxLatency()}.
+     */
+    boolean highDynamicRange() default false;
+
+    /**
+     * Number of significant decimal digits to which the latencies are recorded (between 0 and 5), e.g. 3 for a 0.1%
+     * precision.
+     */
+    int significantDigits() default 3;
+
+    /**
+     * Highest latency recorded, the higher latencies are recorded as this one.
+     */
+    long maxLatency() default 1;
+
+    TimeUnit maxLatencyUnit() default TimeUnit.MINUTES;
+
+    /**
+     * Interval over which the reported quantiles are computed, the latencies recorded in the last complete interval
+     * are reported.
+     */
+    long snapshotInterval() default 1;
+
+    TimeUnit snapshotIntervalUnit() default TimeUnit.MINUTES;
+
+    /**
+     * Expected interval between two invocations, when the invocations are issued at a known pace: a latency longer
+     * than the interval is also recorded as the latencies the invocations which could not be issued meanwhile would
+     * have seen (coordinated omission correction). Not corrected when 0.
+     */
+    long expectedInterval() default 0;
+
+    TimeUnit expectedIntervalUnit() default TimeUnit.MILLISECONDS;
+
+    /**
+     * Classifier of the failures of the method, which are counted per {@link FailureKind} and retried (when
+     * {@link Conform conformed}) as it decides.
+     */
+    Class<? extends FailureClassifier> classifier() default DefaultFailureClassifier.class;
 }
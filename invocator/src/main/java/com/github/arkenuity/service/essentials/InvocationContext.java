@@ -0,0 +1,121 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * The state of a single execution of an invocation (an attempt, or a hedge of it): its attempt number, its deadline,
+ * when it started and ran, and its outcome. A context is created per execution and only handed to the instrumentors
+ * of that execution, so that the instrumentors themselves hold no state and are shared by the concurrent invocations
+ * of a Callable class without locking. The contexts of the executions of a call are chained, for the call to total
+ * their queue and run times once complete without accumulating them into shared counters.
+ * <p>
+ * The fields are not volatile but the run time: each is written before the execution is handed over to the engine,
+ * or once its future has completed, both of which happen before the instrumentors read them; the run time is written
+ * last by the thread running the execution, and read by the call once complete, when that thread may still be running.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class InvocationContext {
+    private final int attempt;
+    private final Deadline deadline;
+    private final InvocationContext previous;
+    private final long startedAt = System.nanoTime();
+    private long runningAt;
+    private volatile long ranNanos = -1;
+    private long completedAt;
+    private Throwable failure;
+    private volatile boolean timedOut;
+
+    InvocationContext(final int attempt, final Deadline deadline, final InvocationContext previous) {
+        this.attempt = attempt;
+        this.deadline = deadline;
+        this.previous = previous;
+    }
+
+    /**
+     * The attempt number, starting at 1.
+     */
+    int attempt() {
+        return attempt;
+    }
+
+    /**
+     * The deadline the execution is bound to, null when none.
+     */
+    Deadline deadline() {
+        return deadline;
+    }
+
+    /**
+     * The context of the execution of the same call started before this one, null when first.
+     */
+    InvocationContext previous() {
+        return previous;
+    }
+
+    /**
+     * Marks the start of the run of the execution, on its thread.
+     */
+    void running() {
+        runningAt = System.nanoTime();
+    }
+
+    void ran() {
+        ranNanos = System.nanoTime() - runningAt;
+    }
+
+    /**
+     * Whether the Callable of the execution returned, as timed by its thread.
+     */
+    boolean hasRun() {
+        return ranNanos >= 0;
+    }
+
+    /**
+     * The time from the start of the execution to the start of its run: the time it waited for the rate limit, the
+     * bulkhead and a thread of the engine.
+     */
+    long queueNanos() {
+        return runningAt - startedAt;
+    }
+
+    /**
+     * The time the Callable of the execution took to return, on its thread.
+     */
+    long ranNanos() {
+        return ranNanos;
+    }
+
+    void succeeded() {
+        completedAt = System.nanoTime();
+    }
+
+    void failed(final Throwable th) {
+        completedAt = System.nanoTime();
+        failure = th;
+    }
+
+    /**
+     * The cause of the failure of the execution, null when it succeeded.
+     */
+    Throwable failure() {
+        return failure;
+    }
+
+    /**
+     * Marks the execution as cancelled because it timed out, rather than because it lost a hedged race or its caller
+     * gave up.
+     */
+    void timedOut() {
+        timedOut = true;
+    }
+
+    boolean isTimedOut() {
+        return timedOut;
+    }
+
+    /**
+     * The time from the start of the execution to its completion, admission and queueing included.
+     */
+    long elapsedNanos() {
+        return completedAt - startedAt;
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when an invocation is rejected without the Callable being executed, to protect either the process or the
+ * dependency being called.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class InvocationRejectedException extends ServiceInvocationException {
+
+    public InvocationRejectedException(final String message) {
+        super(message, null);
+    }
+
+    public InvocationRejectedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when a queued invocation is shed to make room for a more critical one, the engine being overloaded (see
+ * {@link Criticality}).
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class InvocationShedException extends InvocationRejectedException {
+
+    public InvocationShedException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * A Callable identifying the call it makes, so that its concurrent invocations are collapsed: while an invocation is
+ * in flight, the invocations of the same Callable class (and {@link Instrumented} method) with an equal key share its
+ * execution and its outcome rather than calling the dependency again.
+ *
+ * <pre>
+ *    class ProfileById implements Callable&lt;UserProfile&gt;, Keyed {
+ *        public Object key() {
+ *            return profileId;
+ *        }
+ *
+ *        &#064Instrumented(clazz=UserProfileServiceProxy.class, method="byProfileId")
+ *        public UserProfile call() {
+ *            return profileService.byProfile(profileId);
+ *        }
+ *    }
+ * </pre>
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public interface Keyed {
+
+    /**
+     * The key of the call within its Callable class, implementing equals and hashCode; the invocation is not collapsed
+     * when null.
+     */
+    Object key();
+}
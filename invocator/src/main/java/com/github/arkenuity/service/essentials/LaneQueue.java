@@ -0,0 +1,464 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * The work queue of an {@link ExecutionEngine} with a lane per {@link Criticality}, each bounded on its own. The tasks
+ * waiting for a thread are taken either by strict priority (the most critical lane first), or by weighted fair share
+ * (a smooth weighted round robin over the lanes which have tasks), so that the least critical lanes are not starved.
+ * <p>
+ * Once the queue as a whole is full, a task makes room for itself by shedding the most recently queued task of the
+ * least critical lane below its own, which fails with an {@link InvocationShedException}; a task which cannot make
+ * room, or whose lane is full, is rejected by {@link #offer(Runnable)}, whereas {@link #put(Runnable)} waits for room
+ * in its lane, on a condition per lane: the room freed by a removal goes to the most critical lane waiting for it.
+ * <p>
+ * The lanes are guarded by a single lock: a queue operation is a few deque operations, short compared to the tasks.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class LaneQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+    private static final Criticality[] LANES = Criticality.values();
+
+    private final String name;
+    private final boolean strict;
+    private final int capacity;
+    private final int[] laneCapacities;
+    private final int[] weights;
+    private final int[] credits = new int[LANES.length];
+    private final List<ArrayDeque<Runnable>> lanes = new ArrayList<ArrayDeque<Runnable>>(LANES.length);
+    private final StripedCounter[] shed = new StripedCounter[LANES.length];
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition[] notFull = new Condition[LANES.length];
+    private int size;
+
+    LaneQueue(final String name, final boolean strict, final int capacity, final int[] laneCapacities,
+              final int[] weights) {
+        this.name = name;
+        this.strict = strict;
+        this.capacity = capacity;
+        this.laneCapacities = laneCapacities.clone();
+        this.weights = weights.clone();
+        for (final Criticality criticality : LANES) {
+            final ArrayDeque<Runnable> lane = new ArrayDeque<Runnable>();
+            lanes.add(lane);
+            notFull[criticality.ordinal()] = lock.newCondition();
+            final String scope = name + "." + criticality.name().toLowerCase();
+            shed[criticality.ordinal()] =
+                MetricsView.counter(new MetricName(ExecutionEngine.class, "Shed-Tasks", scope));
+            Metrics.newGauge(ExecutionEngine.class, "Queued-Tasks", scope, new Gauge<Integer>() {
+                @Override
+                public Integer value() {
+                    lock.lock();
+                    try {
+                        return lane.size();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The task running the Callable in the lane of the given criticality.
+     */
+    <T> Task task(final Callable<T> callable, final Criticality criticality) {
+        return new Task(callable, criticality);
+    }
+
+    @Override
+    public boolean offer(final Runnable task) {
+        final int lane = lane(task);
+        final Task victim;
+        lock.lock();
+        try {
+            if (!hasRoom(lane)) {
+                return false;
+            }
+            victim = enqueue(task, lane);
+        } finally {
+            lock.unlock();
+        }
+        shed(victim);
+        return true;
+    }
+
+    @Override
+    public boolean offer(final Runnable task, final long timeout, final TimeUnit unit) throws InterruptedException {
+        final int lane = lane(task);
+        long nanos = unit.toNanos(timeout);
+        final Task victim;
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoom(lane)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = awaitRoom(lane, nanos);
+            }
+            victim = enqueue(task, lane);
+        } finally {
+            lock.unlock();
+        }
+        shed(victim);
+        return true;
+    }
+
+    @Override
+    public void put(final Runnable task) throws InterruptedException {
+        final int lane = lane(task);
+        final Task victim;
+        lock.lockInterruptibly();
+        try {
+            while (!hasRoom(lane)) {
+                awaitRoom(lane, -1);
+            }
+            victim = enqueue(task, lane);
+        } finally {
+            lock.unlock();
+        }
+        shed(victim);
+    }
+
+    /**
+     * Waits for room in the lane, forever when the timeout is negative; the room this waiter was signalled for is
+     * passed on when it gives up.
+     */
+    private long awaitRoom(final int lane, final long nanos) throws InterruptedException {
+        try {
+            if (nanos < 0) {
+                notFull[lane].await();
+                return nanos;
+            }
+            final long remaining = notFull[lane].awaitNanos(nanos);
+            if (remaining <= 0) {
+                signalRoom();
+            }
+            return remaining;
+        } catch (final InterruptedException e) {
+            signalRoom();
+            throw e;
+        }
+    }
+
+    /**
+     * Whether the lane has room for a task, possibly made by shedding a less critical one.
+     */
+    private boolean hasRoom(final int lane) {
+        return lanes.get(lane).size() < laneCapacities[lane] && (size < capacity || sheddable(lane) >= 0);
+    }
+
+    /**
+     * Queues the task in its lane, shedding a less critical task if the queue is full; the task shed is returned, to
+     * be failed once the lock is released.
+     */
+    private Task enqueue(final Runnable task, final int lane) {
+        final Task victim = size >= capacity ? shed(lane) : null;
+        lanes.get(lane).addLast(task);
+        size++;
+        notEmpty.signal();
+        if (size < capacity) { // Pass the room left on to the next waiter
+            signalRoom();
+        }
+        return victim;
+    }
+
+    /**
+     * The least critical lane below the given one whose most recently queued task can be shed, -1 when none.
+     */
+    private int sheddable(final int lane) {
+        for (int lower = LANES.length - 1; lower > lane; lower--) {
+            if (lanes.get(lower).peekLast() instanceof Task) {
+                return lower;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the most recently queued task of the least critical lane below the given one, if any.
+     */
+    private Task shed(final int lane) {
+        final int lower = sheddable(lane);
+        if (lower < 0) {
+            return null;
+        }
+        size--;
+        shed[lower].inc();
+        return (Task) lanes.get(lower).removeLast();
+    }
+
+    private static void shed(final Task victim) {
+        if (victim != null) {
+            victim.shed();
+        }
+    }
+
+    /**
+     * Signals the most critical lane waiting for room which now has some, once a task was removed.
+     */
+    private void signalRoom() {
+        if (size >= capacity) {
+            return;
+        }
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (lanes.get(lane).size() < laneCapacities[lane] && lock.hasWaiters(notFull[lane])) {
+                notFull[lane].signal();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable dequeue() {
+        if (size == 0) {
+            return null;
+        }
+        final int lane = strict ? mostCritical() : nextWeighted();
+        size--;
+        final Runnable task = lanes.get(lane).pollFirst();
+        signalRoom();
+        return task;
+    }
+
+    private int mostCritical() {
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (!lanes.get(lane).isEmpty()) {
+                return lane;
+            }
+        }
+        throw new IllegalStateException("No task queued.");
+    }
+
+    /**
+     * Smooth weighted round robin: each lane with tasks earns its weight, the richest lane is picked and pays the
+     * weights earned in total.
+     */
+    private int nextWeighted() {
+        int picked = -1;
+        int total = 0;
+        for (int lane = 0; lane < LANES.length; lane++) {
+            if (lanes.get(lane).isEmpty()) {
+                continue;
+            }
+            credits[lane] += weights[lane];
+            total += weights[lane];
+            if (picked < 0 || credits[lane] > credits[picked]) {
+                picked = lane;
+            }
+        }
+        credits[picked] -= total;
+        return picked;
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            for (final ArrayDeque<Runnable> lane : lanes) {
+                if (!lane.isEmpty()) {
+                    return lane.peekFirst();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return Math.max(0, capacity - size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(final Object task) {
+        lock.lock();
+        try {
+            for (final ArrayDeque<Runnable> lane : lanes) {
+                if (lane.remove(task)) {
+                    size--;
+                    signalRoom();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> to) {
+        return drainTo(to, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super Runnable> to, final int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            for (final ArrayDeque<Runnable> lane : lanes) {
+                while (drained < maxElements && !lane.isEmpty()) {
+                    to.add(lane.pollFirst());
+                    size--;
+                    drained++;
+                }
+            }
+            if (drained > 0) {
+                signalRoom();
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Iterates over a snapshot of the queued tasks, most critical lane first.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            final List<Runnable> snapshot = new ArrayList<Runnable>(size);
+            for (final ArrayDeque<Runnable> lane : lanes) {
+                snapshot.addAll(lane);
+            }
+            final Iterator<Runnable> iterator = snapshot.iterator();
+            return new Iterator<Runnable>() {
+                private Runnable current;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public Runnable next() {
+                    current = iterator.next();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    LaneQueue.this.remove(current);
+                }
+            };
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static int lane(final Runnable task) {
+        return (task instanceof Task ? ((Task) task).criticality : Criticality.DEFAULT).ordinal();
+    }
+
+    final class Task implements Runnable {
+        private final ListenableFutureTask<?> future;
+        private final Criticality criticality;
+        private volatile boolean shed;
+
+        private <T> Task(final Callable<T> callable, final Criticality criticality) {
+            this.criticality = criticality;
+            this.future = ListenableFutureTask.create(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (shed) {
+                        throw new InvocationShedException(String.format(
+                                "Shed from the %s lane of the overloaded %s engine", Task.this.criticality, name));
+                    }
+                    return callable.call();
+                }
+            });
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> ListenableFutureTask<T> future() {
+            return (ListenableFutureTask<T>) future;
+        }
+
+        @Override
+        public void run() {
+            future.run();
+        }
+
+        /**
+         * Fails the task removed from its lane, on the calling thread.
+         */
+        private void shed() {
+            shed = true;
+            future.run();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * The latencies of a dependency recorded into an HdrHistogram {@link Recorder}: recording a latency is wait free and
+ * does not allocate, and the histograms take a fixed amount of memory, set by the precision and the highest latency.
+ * The latencies are recorded in microseconds, to two significant digits unless {@link Instrumented#highDynamicRange()}
+ * asks for the configured precision.
+ * <p>
+ * The recorded latencies are folded by the {@link MetricsView} into the current snapshot interval, and exported as
+ * gauges read from the snapshot histogram, in milliseconds, of the median, p99, p99.9, p99.99 and max latencies, along
+ * with the number of latencies recorded, over the last complete snapshot interval: once the interval has elapsed, the
+ * latencies folded meanwhile become the snapshot. Nothing is replayed into a sampled metrics timer.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class LatencyHistogram {
+    private static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder;
+    private final long highestMicros;
+    private final long expectedIntervalMicros;
+    private final long snapshotIntervalNanos;
+    private Histogram interval;
+    private Histogram accumulated;
+    private Histogram snapshot;
+    private volatile long snapshotAt = System.nanoTime();
+    private volatile long snapshotCount;
+
+    LatencyHistogram(final MetricName name, final Instrumented config) {
+        final boolean highDynamicRange = config != null && config.highDynamicRange();
+        final int significantDigits = highDynamicRange ? Math.min(5, Math.max(0, config.significantDigits())) :
+            DEFAULT_SIGNIFICANT_DIGITS;
+        highestMicros = config == null ? MINUTES.toMicros(1) :
+            Math.max(2, config.maxLatencyUnit().toMicros(config.maxLatency()));
+        expectedIntervalMicros = config == null ? 0 :
+            Math.max(0, config.expectedIntervalUnit().toMicros(config.expectedInterval()));
+        snapshotIntervalNanos = config == null ? MINUTES.toNanos(1) :
+            Math.max(1, config.snapshotIntervalUnit().toNanos(config.snapshotInterval()));
+        recorder = new Recorder(1, highestMicros, significantDigits);
+        interval = recorder.getIntervalHistogram();
+        accumulated = new Histogram(1, highestMicros, significantDigits);
+        snapshot = new Histogram(1, highestMicros, significantDigits);
+        gauge(name, "-P50", 50);
+        gauge(name, "-P99", 99);
+        gauge(name, "-P999", 99.9);
+        gauge(name, "-P9999", 99.99);
+        Metrics.newGauge(suffixed(name, "-Max"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return max();
+            }
+        });
+        Metrics.newGauge(suffixed(name, "-Count"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return count();
+            }
+        });
+    }
+
+    private static MetricName suffixed(final MetricName name, final String suffix) {
+        return new MetricName(name.getGroup(), name.getType(), name.getName() + suffix, name.getScope());
+    }
+
+    private void gauge(final MetricName name, final String suffix, final double percentile) {
+        Metrics.newGauge(suffixed(name, suffix), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return valueAtNanos(percentile / 100) / 1e6;
+            }
+        });
+    }
+
+    void record(final long nanos) {
+        final long micros = Math.min(highestMicros, Math.max(0, NANOSECONDS.toMicros(nanos)));
+        if (expectedIntervalMicros > 0) {
+            recorder.recordValueWithExpectedInterval(micros, expectedIntervalMicros);
+        } else {
+            recorder.recordValue(micros);
+        }
+    }
+
+    /**
+     * The number of latencies recorded over the last snapshot interval.
+     */
+    long count() {
+        rotate();
+        return snapshotCount;
+    }
+
+    /**
+     * The latency at the given quantile (between 0 and 1) over the last snapshot interval.
+     */
+    long valueAtNanos(final double quantile) {
+        rotate();
+        synchronized (this) {
+            return MICROSECONDS.toNanos(snapshot.getValueAtPercentile(quantile * 100));
+        }
+    }
+
+    private double max() {
+        rotate();
+        synchronized (this) {
+            return snapshot.getMaxValue() / 1e3;
+        }
+    }
+
+    /**
+     * Folds the snapshot interval in, once it has elapsed, for the readers not to wait for the next fold.
+     */
+    private void rotate() {
+        if (System.nanoTime() - snapshotAt >= snapshotIntervalNanos) {
+            fold();
+        }
+    }
+
+    /**
+     * Swaps the recorded histogram for an empty one (recycled from the previous fold), adds its latencies to the
+     * current snapshot interval, and makes them the snapshot once the interval has elapsed.
+     */
+    synchronized void fold() {
+        interval = recorder.getIntervalHistogram(interval);
+        accumulated.add(interval);
+        final long now = System.nanoTime();
+        if (now - snapshotAt >= snapshotIntervalNanos) {
+            final Histogram complete = accumulated;
+            accumulated = snapshot;
+            accumulated.reset();
+            snapshot = complete;
+            snapshotCount = complete.getTotalCount();
+            snapshotAt = now;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * The striped handles the invocations record their metrics into, one per metric name, and their view in the metrics
+ * registry. The invocations only ever touch the handles: incrementing a {@link StripedCounter} or recording into a
+ * {@link LatencyHistogram} is lock free and does not allocate, while a registry counter is a single atomic long every
+ * invocation contends on and a registry timer locks and allocates to sample each latency.
+ * <p>
+ * The counters are exported under their names as registry counters, and the latencies as gauges of their quantiles
+ * and counts, but those metrics are only a view: what was recorded into the handles is folded into them every
+ * {@link #FOLD_INTERVAL_SECONDS} seconds by a single daemon thread, so that a reporter sees the counts and latencies at
+ * most that late.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class MetricsView {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsView.class);
+
+    static final long FOLD_INTERVAL_SECONDS = 5;
+
+    private static final ConcurrentMap<MetricName, StripedCounter> COUNTERS =
+        new ConcurrentHashMap<MetricName, StripedCounter>();
+    private static final ConcurrentMap<MetricName, LatencyHistogram> LATENCIES =
+        new ConcurrentHashMap<MetricName, LatencyHistogram>();
+    private static final ScheduledExecutorService FOLDER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("service-invocation-metrics-%d").setDaemon(true).build());
+
+    static {
+        FOLDER.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fold();
+                } catch (final RuntimeException e) {
+                    LOG.warn("Failed to fold the metrics into the registry.", e);
+                }
+            }
+        }, FOLD_INTERVAL_SECONDS, FOLD_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private MetricsView() {}
+
+    /**
+     * The counter of the given name, created and exported once.
+     */
+    static StripedCounter counter(final MetricName name) {
+        final StripedCounter counter = COUNTERS.get(name);
+        if (counter != null) {
+            return counter;
+        }
+        synchronized (COUNTERS) {
+            StripedCounter created = COUNTERS.get(name);
+            if (created == null) {
+                created = new StripedCounter(name);
+                COUNTERS.put(name, created);
+            }
+            return created;
+        }
+    }
+
+    /**
+     * The latency histogram of the given name, created and exported once as configured by the first
+     * {@link Instrumented} annotation resolved, or with the defaults when none.
+     */
+    static LatencyHistogram latency(final MetricName name, final Instrumented config) {
+        final LatencyHistogram latency = LATENCIES.get(name);
+        if (latency != null) {
+            return latency;
+        }
+        synchronized (LATENCIES) {
+            LatencyHistogram created = LATENCIES.get(name);
+            if (created == null) {
+                created = new LatencyHistogram(name, config);
+                LATENCIES.put(name, created);
+            }
+            return created;
+        }
+    }
+
+    /**
+     * Folds what was recorded into the handles since the last fold into the registry metrics.
+     */
+    static void fold() {
+        for (final StripedCounter counter : COUNTERS.values()) {
+            counter.fold();
+        }
+        for (final LatencyHistogram latency : LATENCIES.values()) {
+            latency.fold();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * Tracks the timed out attempts which were still running when cancelled and the ones still running now.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class Orphans {
+    private final StripedCounter orphaned;
+    private final AtomicInteger running = new AtomicInteger();
+
+    Orphans(final Dependency dependency) {
+        orphaned = dependency.counter("Orphaned-Attempts");
+        Metrics.newGauge(dependency.metricName("Running-Orphaned-Attempts"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return running.get();
+            }
+        });
+    }
+
+    void abandoned() {
+        orphaned.inc();
+        running.incrementAndGet();
+    }
+
+    void completed() {
+        running.decrementAndGet();
+    }
+}
@@ -0,0 +1,21 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares the {@link Criticality} of the invocations of a Callable, which takes precedence over the one of the
+ * calling thread.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Prioritized {
+
+    Criticality value();
+
+}
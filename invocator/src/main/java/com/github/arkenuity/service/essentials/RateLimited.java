@@ -0,0 +1,42 @@
+package com.github.arkenuity.service.essentials;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of the invocations of a dependency, as identified by {@link Instrumented} (clazz and method), to
+ * stay within its quota: a token bucket refilled at the given rate, holding up to burst tokens. An invocation finding
+ * the bucket empty either waits for a token, up to maxWait, or is rejected right away with a
+ * {@link RateLimitedException}.
+ * <p>
+ * The rate limit is shared by all the Callables instrumented with the same clazz and method.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface RateLimited {
+
+    /**
+     * Number of invocations allowed per unit of time.
+     */
+    double rate();
+
+    TimeUnit per() default TimeUnit.SECONDS;
+
+    /**
+     * Number of invocations allowed at once after a quiet period.
+     */
+    int burst() default 1;
+
+    /**
+     * Time an invocation may wait for a token, rejected right away when 0. The wait does not hold a thread.
+     */
+    long maxWait() default 0;
+
+    TimeUnit maxWaitUnit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,16 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Thrown when the {@link RateLimited} rate of a dependency is exceeded and the invocation cannot wait for a token.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ *
+ */
+@SuppressWarnings("serial")
+public class RateLimitedException extends InvocationRejectedException {
+
+    public RateLimitedException(final String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The {@link Cached} results of a dependency, held by a Guava cache bounded in size or weight, evicting the results
+ * once both fresh and stale durations elapsed. A hit is a concurrent map read, only a miss (or a stale hit) invokes
+ * the dependency. The results are cached by the key of the call scoped by its Callable class (see {@link ScopedKey}).
+ * <p>
+ * The failures deemed permanent are cached as well, for the failure time to live, so that the subsequent invocations
+ * of the key fail right away with the same cause: the failures of the {@link Cached#cacheFailureKinds()}, as classified
+ * by the classifier of the dependency, and the {@link Cached#cacheFailures()}.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class ResultCache {
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final long failureTtlNanos;
+    private final Failures failures;
+    private final Set<FailureKind> cacheFailureKinds;
+    private final ImmutableList<Class<? extends Throwable>> cacheFailures;
+    private final ConcurrentMap<Class<?>, Boolean> cacheableFailures = new ConcurrentHashMap<Class<?>, Boolean>();
+    private final Cache<ScopedKey, Entry> entries;
+    private final StripedCounter hits;
+    private final StripedCounter staleHits;
+    private final StripedCounter failureHits;
+    private final StripedCounter misses;
+    private final LatencyHistogram loadTime;
+
+    ResultCache(final Dependency dependency, final Cached config, final Failures failures) {
+        ttlNanos = Math.max(0, config.ttlUnit().toNanos(config.ttl()));
+        staleNanos = ttlNanos > 0 ?
+            Math.max(0, config.staleWhileRevalidateUnit().toNanos(config.staleWhileRevalidate())) : 0;
+        this.failures = failures;
+        cacheFailureKinds = config.cacheFailureKinds().length == 0 ? EnumSet.noneOf(FailureKind.class) :
+            EnumSet.copyOf(Arrays.asList(config.cacheFailureKinds()));
+        cacheFailures = ImmutableList.copyOf(config.cacheFailures());
+        failureTtlNanos = cacheFailureKinds.isEmpty() && cacheFailures.isEmpty() ? 0 :
+            Math.max(0, config.failureTtlUnit().toNanos(config.failureTtl()));
+        final CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(1, Math.max(ttlNanos + staleNanos, failureTtlNanos)), NANOSECONDS);
+        if (config.maxWeight() > 0) {
+            final ResultWeigher weigher = weigher(config.weigher());
+            entries = builder.maximumWeight(config.maxWeight()).weigher(new Weigher<ScopedKey, Entry>() {
+                @Override
+                public int weigh(final ScopedKey key, final Entry entry) {
+                    return entry.failure != null ? 1 : Math.max(1, weigher.weigh(entry.value));
+                }
+            }).build();
+        } else {
+            entries = builder.maximumSize(config.maxSize()).<ScopedKey, Entry>build();
+        }
+        hits = dependency.counter("Cache-Hit");
+        staleHits = dependency.counter("Cache-Stale-Hit");
+        failureHits = dependency.counter("Cache-Failure-Hit");
+        misses = dependency.counter("Cache-Miss");
+        loadTime = dependency.histogram("Cache-Load-Time", null);
+        Metrics.newGauge(dependency.metricName("Cache-Size"), new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return entries.size();
+            }
+        });
+    }
+
+    private static ResultWeigher weigher(final Class<? extends ResultWeigher> weigher) {
+        try {
+            return weigher.newInstance();
+        } catch (final Exception e) {
+            throw new IllegalArgumentException(String.format(
+                    "%s should have a public no argument constructor.", weigher.getName()), e);
+        }
+    }
+
+    /**
+     * The cached result of the key of the given Callable class if any, refreshed in the background when stale,
+     * otherwise the result loaded by the given invocation, which is cached once successful (or failed permanently).
+     * The stale results are refreshed by the given refresh, which must not run on the thread of the caller.
+     */
+    @SuppressWarnings("unchecked")
+    <T> ListenableFuture<T> get(final Class<?> scope, final Object callKey,
+                                final Supplier<ListenableFuture<T>> invocation,
+                                final Supplier<ListenableFuture<T>> refresh) {
+        final ScopedKey key = new ScopedKey(scope, callKey);
+        final Entry cached = entries.getIfPresent(key);
+        final long age = cached == null ? 0 : System.nanoTime() - cached.loadedAt;
+        // The entries live as long as the longest of both lifetimes, so each kind is expired by its own one here
+        if (cached == null || (cached.failure != null ? age >= failureTtlNanos : age >= ttlNanos + staleNanos)) {
+            misses.inc();
+            return load(key, invocation);
+        }
+        if (cached.failure != null) {
+            failureHits.inc();
+            return Futures.immediateFailedFuture(cached.failure);
+        }
+        if (age < ttlNanos) {
+            hits.inc();
+        } else {
+            staleHits.inc();
+            if (cached.refreshing.compareAndSet(false, true)) {
+                Futures.addCallback(load(key, refresh), new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(final T value) {}
+
+                    @Override
+                    public void onFailure(final Throwable th) {
+                        cached.refreshing.set(false); // Left to the next stale hit to try again
+                    }
+                });
+            }
+        }
+        return Futures.immediateFuture((T) cached.value);
+    }
+
+    /**
+     * Loads the result of the key, which is cached before the returned future completes.
+     */
+    private <T> ListenableFuture<T> load(final ScopedKey key, final Supplier<ListenableFuture<T>> invocation) {
+        final long start = System.nanoTime();
+        final ListenableFuture<T> loading = invocation.get();
+        final SettableFuture<T> loaded = SettableFuture.create();
+        Futures.addCallback(loading, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(final T value) {
+                loadTime.record(System.nanoTime() - start);
+                if (ttlNanos > 0) {
+                    entries.put(key, new Entry(value, null));
+                }
+                loaded.set(value);
+            }
+
+            @Override
+            public void onFailure(final Throwable th) {
+                if (failureTtlNanos > 0 && cacheable(th)) {
+                    entries.put(key, new Entry(null, th));
+                }
+                loaded.setException(th);
+            }
+        });
+        loaded.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (loaded.isCancelled()) {
+                    loading.cancel(false);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return loaded;
+    }
+
+    /**
+     * Whether the failure is of a kind to cache or, it or one of its causes, one of the failures to cache; both are
+     * resolved once per exception class.
+     */
+    private boolean cacheable(final Throwable failure) {
+        if (cacheFailureKinds.contains(failures.kind(failure))) {
+            return true;
+        }
+        for (Throwable th = failure; th != null; th = th.getCause() == th ? null : th.getCause()) {
+            Boolean cacheable = cacheableFailures.get(th.getClass());
+            if (cacheable == null) {
+                cacheable = false;
+                for (final Class<? extends Throwable> type : cacheFailures) {
+                    cacheable |= type.isAssignableFrom(th.getClass());
+                }
+                cacheableFailures.put(th.getClass(), cacheable);
+            }
+            if (cacheable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final Throwable failure;
+        private final long loadedAt = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final Object value, final Throwable failure) {
+            this.value = value;
+            this.failure = failure;
+        }
+    }
+}
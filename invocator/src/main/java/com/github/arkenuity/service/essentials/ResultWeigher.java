@@ -0,0 +1,17 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * Weighs the results of a {@link Cached} dependency against its {@link Cached#maxWeight()}, typically by their size.
+ * Declared per dependency through {@link Cached#weigher()}, an implementation needs a public no argument constructor.
+ * <p>
+ * A result is weighed once, when cached; the cached failures weigh 1.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public interface ResultWeigher {
+
+    /**
+     * The weight of the result (null when the call returned null), at least 1.
+     */
+    int weigh(Object result);
+}
@@ -0,0 +1,71 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.TimeUnit;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The retry budget of a dependency, which bounds the load added by the retries: over a sliding window, the retries
+ * may not exceed a ratio of the successful calls, plus a few retries per second so that a dependency seldom
+ * called can still be retried. Once the budget is exhausted the failed invocations are not retried, so that a
+ * struggling dependency does not get a multiple of its load.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class RetryBudget {
+    private static final long WINDOW_SECONDS = 10;
+    private static final int WINDOW_BUCKETS = 10;
+
+    private final double ratio;
+    private final long minRetries;
+    private final SlidingWindow calls = new SlidingWindow(TimeUnit.SECONDS.toNanos(WINDOW_SECONDS), WINDOW_BUCKETS);
+    private final SlidingWindow successes = new SlidingWindow(TimeUnit.SECONDS.toNanos(WINDOW_SECONDS), WINDOW_BUCKETS);
+    private final SlidingWindow retries = new SlidingWindow(TimeUnit.SECONDS.toNanos(WINDOW_SECONDS), WINDOW_BUCKETS);
+    private final StripedCounter exhausted;
+
+    RetryBudget(final Dependency dependency, final Conform config) {
+        this.ratio = Math.max(0, config.retryBudget());
+        this.minRetries = Math.max(0, config.minRetriesPerSecond()) * WINDOW_SECONDS;
+        exhausted = dependency.counter("Retry-Budget-Exhausted");
+        Metrics.newGauge(dependency.metricName("Retry-Budget-Usage"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                return retries.snapshot().calls / allowance(successes.snapshot().calls);
+            }
+        });
+        Metrics.newGauge(dependency.metricName("Retry-Amplification"), new Gauge<Double>() {
+            @Override
+            public Double value() {
+                final long called = calls.snapshot().calls;
+                return called == 0 ? 1 : (double) (called + retries.snapshot().calls) / called;
+            }
+        });
+    }
+
+    void called() {
+        calls.record(false, false);
+    }
+
+    /**
+     * Records a successful call, once whatever the attempt (or hedge) it succeeded on.
+     */
+    void succeeded() {
+        successes.record(false, false);
+    }
+
+    /**
+     * Withdraws a retry from the budget, false when exhausted.
+     */
+    boolean tryRetry() {
+        if (!retries.tryRecord(allowance(successes.snapshot().calls))) {
+            exhausted.inc();
+            return false;
+        }
+        return true;
+    }
+
+    private double allowance(final long succeeded) {
+        return Math.max(1, minRetries + ratio * succeeded);
+    }
+}
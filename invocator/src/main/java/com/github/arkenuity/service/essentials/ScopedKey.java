@@ -0,0 +1,32 @@
+package com.github.arkenuity.service.essentials;
+
+/**
+ * The key of a {@link Keyed} invocation scoped by its Callable class, so that the Callables of different classes
+ * (whose results may differ in type) never share a flight or a cached result, even when instrumented alike or not
+ * instrumented at all.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class ScopedKey {
+    private final Class<?> scope;
+    private final Object key;
+
+    ScopedKey(final Class<?> scope, final Object key) {
+        this.scope = scope;
+        this.key = key;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof ScopedKey)) {
+            return false;
+        }
+        final ScopedKey that = (ScopedKey) other;
+        return scope == that.scope && key.equals(that.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * scope.hashCode() + key.hashCode();
+    }
+}
@@ -1,34 +1,37 @@
 package com.github.arkenuity.service.essentials;
 
 import static com.google.common.base.Preconditions.checkNotNull;
-import static com.yammer.metrics.Metrics.newTimer;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 import java.lang.annotation.Annotation;
-import java.net.ConnectException;
+import java.util.List;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
-import com.google.common.base.Throwables;
+import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.yammer.metrics.Metrics;
-import com.yammer.metrics.core.Clock;
-import com.yammer.metrics.core.Counter;
-import com.yammer.metrics.core.Timer;
+import com.google.common.util.concurrent.SettableFuture;
 /**
  * A service invocation executor utility, which provides the following:
  * <p>
@@ -48,8 +51,9 @@ import com.yammer.metrics.core.Timer;
  * </pre>
  *
  * <p>
- * Note: This utility uses {@link ExecutorService#newCachedThreadPool()} and process the tasks submitted through the
- * Callable using the threads in the pool.
+ * Note: The tasks submitted through the Callable are processed using the threads of a shared {@link ExecutionEngine},
+ * which is either the process wide {@link #defaultEngine()} or the one passed to {@link #execute(Callable,
+ * ExecutionEngine)}.
  *
  * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
  */
@@ -57,116 +61,1002 @@ public final class ServiceInvocation<T> {
 
     private static final Logger LOG = LoggerFactory.getLogger(ServiceInvocation.class);
 
+    private static final Object ENGINE_LOCK = new Object();
+    private static volatile ExecutionEngine defaultEngine;
+
     public static <T> T execute(final Callable<T> callable) {
+        return execute(callable, defaultEngine());
+    }
+
+    public static <T> T execute(final Callable<T> callable, final ExecutionEngine engine) {
+        checkNotNull(callable, "A non null Callable instance should be passed.");
+        checkNotNull(engine, "A non null ExecutionEngine instance should be passed.");
+        return Execution.on(callable, engine, true).execute();
+    }
+
+    /**
+     * Submits the Callable without blocking the calling thread, the returned future honors the same conformance
+     * (retries, maxWaitTime) and instrumentation as {@link #execute(Callable)}. A failed future carries the cause of
+     * the last failed attempt, or a {@link java.util.concurrent.TimeoutException} when maxWaitTime elapsed.
+     */
+    public static <T> ListenableFuture<T> submit(final Callable<T> callable) {
+        return submit(callable, defaultEngine());
+    }
+
+    public static <T> ListenableFuture<T> submit(final Callable<T> callable, final ExecutionEngine engine) {
         checkNotNull(callable, "A non null Callable instance should be passed.");
-        return Execution.on(callable).execute();
+        checkNotNull(engine, "A non null ExecutionEngine instance should be passed.");
+        return Execution.on(callable, engine, false).invoke();
+    }
+
+    /**
+     * The process wide engine used by {@link #execute(Callable)}, which is lazily built with the
+     * {@link ExecutionEngine#builder() defaults} unless one was set through {@link #setDefaultEngine(ExecutionEngine)}.
+     * Setting the <code>service.invocation.threads</code> system property to <code>virtual</code> makes the default
+     * engine run the invocations on virtual threads.
+     */
+    public static ExecutionEngine defaultEngine() {
+        ExecutionEngine engine = defaultEngine;
+        if (engine == null) {
+            synchronized (ENGINE_LOCK) {
+                engine = defaultEngine;
+                if (engine == null) {
+                    engine = ExecutionEngine.defaults();
+                    defaultEngine = engine;
+                }
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Replaces the process wide engine. The replaced engine is not shut down, as it may still have tasks in flight;
+     * it is the responsibility of the caller to shut it down.
+     */
+    public static void setDefaultEngine(final ExecutionEngine engine) {
+        checkNotNull(engine, "A non null ExecutionEngine instance should be passed.");
+        synchronized (ENGINE_LOCK) {
+            defaultEngine = engine;
+        }
     }
 
     private static abstract class Execution<T> {
-        private final Instrumentation instrumentation;
+        protected final InvocationPlan plan;
         protected final Callable<T> callable;
-        private final ListeningExecutorService service =
-                MoreExecutors.listeningDecorator(Executors.newCachedThreadPool());
-
-        protected Execution(final Callable<T> callable) {
+        protected final ExecutionEngine engine;
+        protected final Deadline deadline;
+        protected final Criticality criticality;
+        protected final boolean cancellable;
+        private final boolean inline;
+        private final long calledAt = System.nanoTime();
+        private volatile InvocationContext last;
+
+        protected Execution(final InvocationPlan plan, final Callable<T> callable, final ExecutionEngine engine,
+                            final boolean blocking) {
+            this.plan = plan;
             this.callable = callable;
-            instrumentation = Instrumentation.on(callable);
+            this.engine = engine;
+            this.deadline = Deadline.current();
+            this.criticality = plan.criticality != null ? plan.criticality : Criticality.current();
+            // The attempts are timed out by the deadline of the caller, if any, conformed or not
+            this.cancellable = plan.cancellable || deadline != null;
+            // Fast path: nothing to wait for on behalf of the caller, save the thread hop
+            this.inline = blocking && plan.inlinable && !cancellable && engine.inlineUntimed();
         }
 
-        private static <T> Execution<T> on(final Callable<T> callable) {
-            final Optional<Conform> conformance = annotation(callable, Conform.class);
-            return conformance.isPresent() ? new ConformedExecution<T>(callable, conformance.get()) :
-                new SimpleExecution<T>(callable);
+        private static <T> Execution<T> on(final Callable<T> callable, final ExecutionEngine engine,
+                                           final boolean blocking) {
+            final InvocationPlan plan = InvocationPlan.of(callable);
+            // A call under a deadline is raced against it, like a conformed one
+            return plan.conformed || Deadline.current() != null ?
+                new ConformedExecution<T>(plan, callable, engine, blocking) :
+                new SimpleExecution<T>(plan, callable, engine, blocking);
         }
 
-        protected Future<T> execute(final Callable<T> callable) {
-            // Start the instrumentation (note only desired instrumentation will kick in, as described by annotation)
-            instrumentation.start();
+        /**
+         * The context of a new execution of the given attempt, chained to the executions of the call started before.
+         */
+        protected InvocationContext context(final int attempt) {
+            final InvocationContext context = new InvocationContext(attempt, bound(), last);
+            last = context;
+            return context;
+        }
 
-            final ListenableFuture<T> future = service.submit(callable);
+        protected ListenableFuture<T> execute(final Callable<T> callable, final InvocationContext context,
+                                              final boolean delayed) {
+            final Instrumentation instrumentation = plan.instrumentation;
+            // Start the instrumentation (note only desired instrumentation will kick in, as described by annotation)
+            instrumentation.start(context);
+
+            ListenableFuture<T> future;
+            try {
+                final Callable<T> run = plan.timed ? new Run(callable, context) : callable;
+                future = admit(bind(run, context.deadline()), context, delayed);
+            } catch (final RejectedExecutionException e) { // Engine saturated or shut down
+                future = Futures.immediateFailedFuture(e);
+            } catch (final InvocationRejectedException e) {
+                future = Futures.immediateFailedFuture(e);
+            }
             Futures.addCallback(future, new FutureCallback<T>() {
                 @Override
                 public void onSuccess(final T result) {
-                    instrumentation.trackSuccess();
+                    context.succeeded();
+                    instrumentation.trackSuccess(context);
                 }
                 @Override
                 public void onFailure(final Throwable th) {
                     // Perform more fine grained tracking
-                    instrumentation.trackFailure(th);
+                    context.failed(th);
+                    instrumentation.trackFailure(context);
                 }
             });
 
             return future;
         }
 
+        /**
+         * The deadline of an attempt, to which the invocations it makes are bounded: the deadline of the caller, or
+         * the maxWaitTime of the attempt if earlier.
+         */
+        private Deadline bound() {
+            return Deadline.earliest(deadline,
+                    plan.maxWaitTime > 0 ? Deadline.after(plan.maxWaitTime, plan.maxWaitTimeUnit) : null);
+        }
+
+        /**
+         * Binds the deadline and the criticality of the invocation to the Callable, as the ones of the invocations
+         * made by the Callable.
+         */
+        private Callable<T> bind(final Callable<T> callable, final Deadline bound) {
+            final Callable<T> prioritized = criticality != Criticality.DEFAULT ? criticality.bind(callable) : callable;
+            return bound != null ? bound.bind(prioritized) : prioritized;
+        }
+
+        /**
+         * Dispatches the Callable once admitted by the rate limit, the bulkhead and the concurrency limit of the
+         * dependency, if any. The concurrency limit applies within the bulkhead, so that the time queued for the
+         * bulkhead does not count as latency of the dependency.
+         */
+        private ListenableFuture<T> admit(final Callable<T> callable, final InvocationContext context,
+                                          final boolean delayed) {
+            if (deadline != null && deadline.isExpired()) {
+                throw deadline.exceeded(plan.dependency);
+            }
+            final TokenBucket rateLimit = plan.dependency.rateLimit();
+            if (rateLimit == null) {
+                return isolate(callable, context, delayed);
+            }
+            final long wait = rateLimit.acquire(deadline != null ? deadline.remainingNanos() : Long.MAX_VALUE);
+            if (wait == TokenBucket.REJECTED) {
+                throw rateLimit.reject();
+            }
+            if (wait == 0) {
+                return isolate(callable, context, delayed);
+            }
+            // Wait for the token without holding a thread
+            final SettableFuture<T> waiting = SettableFuture.create();
+            engine.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (waiting.isDone()) { // Cancelled while waiting
+                        return;
+                    }
+                    try {
+                        forward(isolate(callable, context, true), waiting);
+                    } catch (final RuntimeException e) { // Rejected
+                        waiting.setException(e);
+                    }
+                }
+            }, wait, NANOSECONDS);
+            return waiting;
+        }
+
+        private ListenableFuture<T> isolate(final Callable<T> callable, final InvocationContext context,
+                                            final boolean delayed) {
+            final Compartment bulkhead = plan.dependency.bulkhead();
+            if (bulkhead == null) {
+                return limit(callable, context, delayed);
+            }
+            if (bulkhead.tryAcquire()) {
+                return releasing(bulkhead, callable, context, delayed);
+            }
+            // Saturated, wait for a permit without holding a thread
+            final SettableFuture<T> queued = SettableFuture.create();
+            bulkhead.enqueue(new Runnable() {
+                @Override
+                public void run() {
+                    if (queued.isDone()) { // Cancelled while waiting
+                        bulkhead.release();
+                        return;
+                    }
+                    try {
+                        forward(releasing(bulkhead, callable, context, true), queued);
+                    } catch (final RuntimeException e) { // Rejected by the engine or the concurrency limit
+                        queued.setException(e);
+                    }
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    queued.setException(new BulkheadFullException(String.format(
+                            "Timed out waiting for the bulkhead of %s", plan.dependency)));
+                }
+            }, engine.scheduler());
+            return queued;
+        }
+
+        private ListenableFuture<T> releasing(final Compartment bulkhead, final Callable<T> callable,
+                                              final InvocationContext context, final boolean delayed) {
+            final Permit<T> permit = new Permit<T>(callable, bulkhead);
+            final ListenableFuture<T> future;
+            try {
+                future = limit(permit, context, delayed);
+            } catch (final RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+            // Released once complete, after the concurrency limit, and once the Callable returned if it started
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    permit.release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return future;
+        }
+
+        private ListenableFuture<T> limit(final Callable<T> callable, final InvocationContext context,
+                                          final boolean delayed) {
+            final ConcurrencyLimiter limiter = plan.dependency.limiter();
+            if (limiter == null) {
+                return dispatch(callable, context, delayed);
+            }
+            if (!limiter.tryAcquire()) {
+                throw limiter.reject();
+            }
+            final ListenableFuture<T> future;
+            try {
+                future = dispatch(callable, context, delayed);
+            } catch (final RuntimeException e) {
+                limiter.release();
+                throw e;
+            }
+            limiter.track(future, context, plan.failures);
+            return future;
+        }
+
+        private void forward(final ListenableFuture<T> future, final SettableFuture<T> to) {
+            Futures.addCallback(future, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(final T value) {
+                    to.set(value);
+                }
+                @Override
+                public void onFailure(final Throwable th) {
+                    to.setException(th);
+                }
+            });
+            to.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (to.isCancelled()) {
+                        future.cancel(plan.interruptOnTimeout);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private ListenableFuture<T> dispatch(final Callable<T> callable, final InvocationContext context,
+                                             final boolean delayed) {
+            // A delayed attempt is started by the scheduler (or a releasing thread), which must not run the call itself
+            if (inline && !delayed) {
+                return call(callable);
+            }
+            return engine.submit(callable, context.deadline(), criticality);
+        }
+
+        private ListenableFuture<T> call(final Callable<T> callable) {
+            if (engine.isShutdown()) {
+                throw new RejectedExecutionException("The execution engine has been shut down.");
+            }
+            try {
+                return Futures.immediateFuture(callable.call());
+            } catch (final Throwable th) {
+                return Futures.immediateFailedFuture(th);
+            }
+        }
+
         protected T simpleGet(final Future<T> future) {
-            return Futures.get(future, ServiceInvocationException.class);
+            try {
+                return future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceInvocationException(e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof InvocationRejectedException) { // Surfaced as is, to be told apart
+                    throw (InvocationRejectedException) e.getCause();
+                }
+                throw new ServiceInvocationException(e.getCause());
+            }
+        }
+
+        T execute() {
+            return simpleGet(invoke());
         }
 
-        abstract T execute();
+        /**
+         * Submits the invocation, unless it is {@link Keyed} and either its result is cached or an invocation with an
+         * equal key is already in flight, whose outcome is then shared.
+         */
+        ListenableFuture<T> invoke() {
+            final ListenableFuture<T> future = share();
+            if (plan.timed) {
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        trackCall();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+            return future;
+        }
+
+        /**
+         * Tracks the call once complete, with the queue and run times of its executions in total. The runs of the
+         * executions still running once timed out are not accounted for.
+         */
+        private void trackCall() {
+            final long elapsedNanos = System.nanoTime() - calledAt;
+            long queuedNanos = 0;
+            long ranNanos = 0;
+            boolean ran = false;
+            for (InvocationContext context = last; context != null; context = context.previous()) {
+                if (context.hasRun()) {
+                    queuedNanos += context.queueNanos();
+                    ranNanos += context.ranNanos();
+                    ran = true;
+                }
+            }
+            plan.instrumentation.trackCall(elapsedNanos, ran ? queuedNanos : -1, ran ? ranNanos : -1);
+        }
+
+        private ListenableFuture<T> share() {
+            final Object key = callable instanceof Keyed ? ((Keyed) callable).key() : null;
+            if (key == null) {
+                return submit();
+            }
+            if (plan.cache == null) {
+                return collapse(key);
+            }
+            return plan.cache.get(callable.getClass(), key, new Supplier<ListenableFuture<T>>() {
+                @Override
+                public ListenableFuture<T> get() {
+                    return collapse(key);
+                }
+            }, new Supplier<ListenableFuture<T>>() {
+                @Override
+                public ListenableFuture<T> get() {
+                    // Refreshed in the background, on the engine even when the calls of the caller run inline
+                    return (inline ? Execution.on(callable, engine, false) : Execution.this).collapse(key);
+                }
+            });
+        }
+
+        /**
+         * Submits the invocation, unless an invocation with an equal key is already in flight.
+         */
+        private ListenableFuture<T> collapse(final Object key) {
+            return plan.singleFlight.collapse(callable.getClass(), key, new Supplier<ListenableFuture<T>>() {
+                @Override
+                public ListenableFuture<T> get() {
+                    return submit();
+                }
+            });
+        }
+
+        abstract ListenableFuture<T> submit();
+
+        /**
+         * Times the run of an execution on its thread, recorded once the Callable returned, even when the execution
+         * timed out meanwhile.
+         */
+        private final class Run implements Callable<T> {
+            private final Callable<T> callable;
+            private final InvocationContext context;
+
+            private Run(final Callable<T> callable, final InvocationContext context) {
+                this.callable = callable;
+                this.context = context;
+            }
+
+            @Override
+            public T call() throws Exception {
+                context.running();
+                try {
+                    return callable.call();
+                } finally {
+                    context.ran();
+                    plan.instrumentation.trackRun(context);
+                }
+            }
+        }
     }
 
     private static class SimpleExecution<T> extends Execution<T> {
-        private SimpleExecution(final Callable<T> callable) {
-            super(callable);
+        private SimpleExecution(final InvocationPlan plan, final Callable<T> callable, final ExecutionEngine engine,
+                                final boolean blocking) {
+            super(plan, callable, engine, blocking);
         }
 
         @Override
-        T execute() {
-            return simpleGet(execute(callable));
+        ListenableFuture<T> submit() {
+            final Breaker breaker = plan.dependency.breaker();
+            final long token = breaker == null ? 0 : breaker.acquire();
+            if (token == Breaker.REJECTED) {
+                return Futures.immediateFailedFuture(breaker.reject());
+            }
+            final ListenableFuture<T> future = execute(callable, context(1), false);
+            if (breaker != null) {
+                breaker.track(future, token);
+            }
+            return future;
         }
     }
 
+    /**
+     * Executes the attempts one after the other, each attempt is started once the previous one has failed or timed
+     * out and the backoff delay has elapsed, without any thread waiting in between: timeouts, hedges and delayed
+     * retries are fired by the {@link ExecutionEngine#scheduler()}. A timed out attempt is cancelled (and interrupted,
+     * unless disabled through {@link Conform#interruptOnTimeout()}), so that it does not keep running alongside the
+     * retries. A Callable which does not {@link Conform} is executed this way when invoked under a {@link Deadline},
+     * as a single attempt timed out and cancelled by the deadline.
+     */
     private static class ConformedExecution<T> extends Execution<T> {
-        private final int maxAttempts;
-        private final long maxWaitTime;
-        private final TimeUnit maxWaitTimeUnit;
+        private volatile Race current;
 
-        private ConformedExecution(final Callable<T> callable, final Conform conformance) {
-            super(callable);
-            this.maxAttempts = conformance.retryCount() == 0 ? 1 : conformance.retryCount();
-            this.maxWaitTime = conformance.maxWaitTime();
-            this.maxWaitTimeUnit = conformance.maxWaitTimeUnit();
+        private ConformedExecution(final InvocationPlan plan, final Callable<T> callable,
+                                   final ExecutionEngine engine, final boolean blocking) {
+            super(plan, callable, engine, blocking);
         }
 
         @Override
-        T execute() {
-            final int attempt = 1;
-            Optional<Throwable> lastThrowable = Optional.absent();
-            while (attempt <= maxAttempts) {
-                LOG.debug("Execution attempt {}", attempt);
-                try {
-                    return conform(execute(callable));
-                } catch (final Throwable th) {
-                    lastThrowable = Optional.of(th);
+        ListenableFuture<T> submit() {
+            final SettableFuture<T> result = SettableFuture.create();
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    final Race race = current;
+                    if (result.isCancelled() && race != null) { // Cancelled by the caller
+                        race.cancelled();
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            if (plan.retryBudget != null) {
+                plan.retryBudget.called();
+            }
+            attempt(1, false, result);
+            return result;
+        }
+
+        private void attempt(final int attempt, final boolean delayed, final SettableFuture<T> result) {
+            LOG.debug("Execution attempt {}", attempt);
+            final Race race = new Race(attempt);
+            current = race;
+            race.start(delayed);
+            Futures.addCallback(race.outcome, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(final T value) {
+                    if (plan.retryBudget != null) {
+                        plan.retryBudget.succeeded();
+                    }
+                    result.set(value);
+                }
+                @Override
+                public void onFailure(final Throwable th) {
+                    // Only the retryable failures are retried (e.g. not while the circuit is open), and not once the
+                    // deadline will have passed
+                    final long backoff = plan.backoffNanos(attempt);
+                    if (attempt < plan.maxAttempts && !result.isDone() && plan.failures.retryable(th) &&
+                        (deadline == null || deadline.remainingNanos() > backoff) &&
+                        (plan.retryBudget == null || plan.retryBudget.tryRetry())) {
+                        retry(attempt + 1, backoff, result);
+                    } else {
+                        // failed execution, fail with the last exception/error; the rejections are not logged, as
+                        // they are expected under load and should stay cheap, nor the calls which do not conform
+                        if (plan.conformed && !(th instanceof InvocationRejectedException)) {
+                            LOG.error(String.format("Failed to successful execute for %d attempts", attempt), th);
+                        }
+                        result.setException(th);
+                    }
+                }
+            });
+        }
+
+        private void retry(final int attempt, final long backoff, final SettableFuture<T> result) {
+            if (backoff <= 0) {
+                attempt(attempt, false, result);
+                return;
+            }
+            try {
+                engine.scheduler().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!result.isDone()) {
+                            attempt(attempt, true, result);
+                        }
+                    }
+                }, backoff, NANOSECONDS);
+            } catch (final RejectedExecutionException e) {
+                result.setException(e);
+            }
+        }
+
+        /**
+         * An attempt, which may run the Callable twice when hedged: the first execution to succeed wins and the
+         * other one is cancelled, whereas the attempt fails once every execution has failed or maxWaitTime elapsed.
+         * Whatever completes the outcome first claims the race, so that the outcome is accounted for (e.g. a hedge
+         * which won) before the caller is woken up by it.
+         */
+        private final class Race {
+            private final int attempt;
+            private final SettableFuture<T> outcome = SettableFuture.create();
+            private final List<Launch> launches = new CopyOnWriteArrayList<Launch>();
+            private final AtomicInteger pending = new AtomicInteger();
+            private final AtomicBoolean claimed = new AtomicBoolean();
+            private volatile boolean timedOut;
+
+            private Race(final int attempt) {
+                this.attempt = attempt;
+            }
+
+            private void start(final boolean delayed) {
+                final Breaker breaker = plan.dependency.breaker();
+                final long token = breaker == null ? 0 : breaker.acquire();
+                if (token == Breaker.REJECTED) {
+                    if (claim()) {
+                        outcome.setException(breaker.reject());
+                    }
+                    return;
+                }
+                if (breaker != null) {
+                    breaker.track(outcome, token);
+                }
+                launch(delayed, false);
+                final long maxWaitNanos = plan.maxWaitTime > 0 ? plan.maxWaitTimeUnit.toNanos(plan.maxWaitTime) : -1;
+                if (deadline != null && (maxWaitNanos < 0 || deadline.remainingNanos() < maxWaitNanos)) {
+                    schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            timeOut(new TimeoutException(String.format(
+                                    "Attempt did not complete within the deadline of %s", plan.dependency)));
+                        }
+                    }, Math.max(0, deadline.remainingNanos()));
+                } else if (maxWaitNanos > 0) {
+                    schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            timeOut(new TimeoutException(String.format(
+                                    "Attempt did not complete within %d %s", plan.maxWaitTime, plan.maxWaitTimeUnit)));
+                        }
+                    }, maxWaitNanos);
+                }
+                final long hedgeDelay = plan.hedging ? plan.hedgeDelayNanos() : -1;
+                if (hedgeDelay >= 0) {
+                    schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            hedge();
+                        }
+                    }, hedgeDelay);
+                }
+                outcome.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        cancel();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+
+            private void hedge() {
+                if (outcome.isDone()) {
+                    return;
+                }
+                if (!plan.hedges.acquire(plan.maxHedgesInFlight)) {
+                    LOG.debug("Hedge of attempt {} skipped, too many hedges in flight", attempt);
+                    return;
+                }
+                LOG.debug("Hedging attempt {}", attempt);
+                launch(true, true).future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        plan.hedges.release();
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+
+            private Launch launch(final boolean delayed, final boolean hedge) {
+                final Attempt<T> task = cancellable ? new Attempt<T>(callable, plan.orphans) : null;
+                pending.incrementAndGet();
+                final InvocationContext context = context(attempt);
+                final ListenableFuture<T> future = execute(task != null ? task : callable, context, delayed);
+                final Launch launch = new Launch(task, context, future);
+                launches.add(launch);
+                Futures.addCallback(future, new FutureCallback<T>() {
+                    @Override
+                    public void onSuccess(final T value) {
+                        if (claim()) {
+                            if (hedge) {
+                                plan.hedges.won();
+                            }
+                            outcome.set(value);
+                        }
+                    }
+                    @Override
+                    public void onFailure(final Throwable th) {
+                        if (pending.decrementAndGet() == 0 && claim()) {
+                            outcome.setException(th);
+                        }
+                    }
+                });
+                if (outcome.isDone()) { // Lost the race against the completion of the attempt
+                    launch.cancel(timedOut);
+                }
+                return launch;
+            }
+
+            private boolean claim() {
+                return claimed.compareAndSet(false, true);
+            }
+
+            private void timeOut(final TimeoutException timeout) {
+                if (claim()) {
+                    timedOut = true;
+                    outcome.setException(timeout);
+                }
+            }
+
+            /**
+             * Cancels the attempt on behalf of the caller, unless its outcome is already known.
+             */
+            private void cancelled() {
+                if (claim()) {
+                    outcome.cancel(false);
+                }
+            }
+
+            /**
+             * Cancels the executions still running once the outcome is known: as timed out when the attempt timed
+             * out, rather than lost the race or was cancelled by the caller.
+             */
+            private void cancel() {
+                for (final Launch launch : launches) {
+                    launch.cancel(timedOut);
+                }
+            }
+
+            private void schedule(final Runnable timer, final long delayNanos) {
+                final ScheduledFuture<?> scheduled = engine.scheduler().schedule(timer, delayNanos, NANOSECONDS);
+                outcome.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        scheduled.cancel(false);
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+            }
+        }
+
+        private final class Launch {
+            private final Attempt<T> task;
+            private final InvocationContext context;
+            private final ListenableFuture<T> future;
+
+            private Launch(final Attempt<T> task, final InvocationContext context, final ListenableFuture<T> future) {
+                this.task = task;
+                this.context = context;
+                this.future = future;
+            }
+
+            /**
+             * Cancels the execution unless complete; only the executions which timed out are abandoned, and tracked
+             * as orphans if still running, not the ones which lost the race or were cancelled by the caller.
+             */
+            private void cancel(final boolean timedOut) {
+                if (task != null && !future.isDone()) {
+                    if (timedOut) {
+                        context.timedOut();
+                        task.abandon();
+                    }
+                    future.cancel(plan.interruptOnTimeout);
+                }
+            }
+        }
+    }
+
+    /**
+     * Holds a permit of a bulkhead until the Callable has actually returned, even when cancelled meanwhile, so that
+     * the attempts ignoring the interruption still count against the bulkhead, and until its future completed, so that
+     * the concurrency limit applied within the bulkhead is released first.
+     */
+    private static final class Permit<T> implements Callable<T> {
+        private final Callable<T> callable;
+        private final Compartment bulkhead;
+        private final AtomicBoolean started = new AtomicBoolean();
+        /** Held by the run of the Callable, and by its future until completed. */
+        private final AtomicInteger holds = new AtomicInteger(2);
+
+        private Permit(final Callable<T> callable, final Compartment bulkhead) {
+            this.callable = callable;
+            this.bulkhead = bulkhead;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException("Cancelled before it started.");
+            }
+            try {
+                return callable.call();
+            } finally {
+                unhold();
+            }
+        }
+
+        /**
+         * Releases the permit once the future completed (or failed to be created), as soon as the Callable returned
+         * or right away if it never started.
+         */
+        private void release() {
+            if (started.compareAndSet(false, true)) {
+                unhold();
+            }
+            unhold();
+        }
+
+        private void unhold() {
+            if (holds.decrementAndGet() == 0) {
+                bulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * An attempt which can be abandoned once timed out, the attempts still running when abandoned are tracked as
+     * orphans until they complete (typically the ones ignoring the interruption).
+     */
+    private static final class Attempt<T> implements Callable<T> {
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int DONE = 2;
+        private static final int ABANDONED = 3;
+
+        private final Callable<T> callable;
+        private final Orphans orphans;
+        private final AtomicInteger state = new AtomicInteger(NEW);
+
+        private Attempt(final Callable<T> callable, final Orphans orphans) {
+            this.callable = callable;
+            this.orphans = orphans;
+        }
+
+        @Override
+        public T call() throws Exception {
+            if (!state.compareAndSet(NEW, RUNNING)) {
+                throw new CancellationException("Attempt abandoned before it started.");
+            }
+            try {
+                return callable.call();
+            } finally {
+                if (!state.compareAndSet(RUNNING, DONE)) {
+                    orphans.completed();
                 }
             }
-            // failed execution, throw the last exception/error
-            LOG.error(String.format("Failed to successful execute for {} attempts", maxAttempts), lastThrowable);
-            throw new RuntimeException(lastThrowable.get());
-         }
+        }
 
-        private T conform(final Future<T> future) {
-            if (maxWaitTime > 0) {
-                return Futures.get(future, maxWaitTime, maxWaitTimeUnit, ServiceInvocationException.class);
+        private void abandon() {
+            if (state.compareAndSet(RUNNING, ABANDONED)) {
+                orphans.abandoned();
             } else {
-                return Futures.get(future, ServiceInvocationException.class);
+                state.compareAndSet(NEW, ABANDONED);
             }
         }
     }
 
+    /**
+     * The execution plan of a Callable class, the annotations and the conformance policy are resolved and the metric
+     * handles are bound once per class, so that the subsequent invocations do not resort to reflection.
+     */
+    private static final class InvocationPlan {
+        private static final long MIN_HEDGE_SAMPLES = 100;
+        private static final long HEDGE_DELAY_REFRESH_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final LoadingCache<Class<?>, InvocationPlan> PLANS = CacheBuilder.newBuilder().weakKeys()
+                .build(new CacheLoader<Class<?>, InvocationPlan>() {
+                    @Override
+                    public InvocationPlan load(final Class<?> clazz) {
+                        return new InvocationPlan(clazz);
+                    }
+                });
+
+        private final boolean conformed;
+        private final int maxAttempts;
+        private final long maxWaitTime;
+        private final TimeUnit maxWaitTimeUnit;
+        private final long backoffNanos;
+        private final double backoffMultiplier;
+        private final long maxBackoffNanos;
+        private final double jitter;
+        private final boolean interruptOnTimeout;
+        private final boolean hedging;
+        private final long hedgeAfterNanos;
+        private final double hedgeAfterQuantile;
+        private final int maxHedgesInFlight;
+        private final LatencyHistogram hedgeHistogram;
+        private volatile long hedgeDelayNanos = -1;
+        private volatile long hedgeDelayExpiry;
+        private final boolean cancellable;
+        private final boolean inlinable;
+        private final boolean timed;
+        private final Failures failures;
+        private final Instrumentation instrumentation;
+        private final Dependency dependency;
+        private final Orphans orphans;
+        private final Hedges hedges;
+        private final SingleFlight singleFlight;
+        private final ResultCache cache;
+        private final Criticality criticality;
+        private final RetryBudget retryBudget;
+
+        private InvocationPlan(final Class<?> clazz) {
+            final Optional<Conform> conformance = annotation(clazz, Conform.class);
+            final Optional<Instrumented> instrumented = annotation(clazz, Instrumented.class);
+            conformed = conformance.isPresent();
+            if (conformed) {
+                final Conform conform = conformance.get();
+                maxAttempts = 1 + Math.max(0, conform.retryCount());
+                maxWaitTime = conform.maxWaitTime();
+                maxWaitTimeUnit = conform.maxWaitTimeUnit();
+                backoffNanos = conform.backoffUnit().toNanos(conform.backoff());
+                backoffMultiplier = Math.max(1, conform.backoffMultiplier());
+                maxBackoffNanos = conform.maxBackoff() > 0 ? conform.backoffUnit().toNanos(conform.maxBackoff()) :
+                    Long.MAX_VALUE;
+                jitter = Math.min(1, Math.max(0, conform.jitter()));
+                interruptOnTimeout = conform.interruptOnTimeout();
+                hedging = conform.hedgeAfter() > 0 || conform.hedgeAfterQuantile() > 0;
+                hedgeAfterNanos = conform.hedgeAfter() > 0 ?
+                    conform.hedgeAfterUnit().toNanos(conform.hedgeAfter()) : -1;
+                hedgeAfterQuantile = Math.min(1, conform.hedgeAfterQuantile());
+                maxHedgesInFlight = conform.maxHedgesInFlight();
+            } else {
+                maxAttempts = 1;
+                maxWaitTime = 0;
+                maxWaitTimeUnit = TimeUnit.MILLISECONDS;
+                backoffNanos = 0;
+                backoffMultiplier = 1;
+                maxBackoffNanos = 0;
+                jitter = 0;
+                interruptOnTimeout = true;
+                hedging = false;
+                hedgeAfterNanos = -1;
+                hedgeAfterQuantile = 0;
+                maxHedgesInFlight = 0;
+            }
+            dependency = Dependency.of(instrumented);
+            final boolean quantiles = hedging && hedgeAfterQuantile > 0 && instrumented.isPresent() &&
+                instrumented.get().timed();
+            hedgeHistogram = quantiles ? dependency.histogram("Success-Time", instrumented.get()) : null;
+            cancellable = maxWaitTime > 0 || hedging;
+            inlinable = maxWaitTime <= 0 && !hedging;
+            timed = instrumented.isPresent() && instrumented.get().timed();
+            failures = dependency.failures(instrumented.isPresent() ? instrumented.get().classifier() :
+                DefaultFailureClassifier.class);
+            instrumentation = Instrumentation.on(instrumented, dependency);
+            final Optional<Bulkhead> bulkhead = policy(clazz, Bulkhead.class, instrumented);
+            if (bulkhead.isPresent()) {
+                dependency.isolate(bulkhead.get());
+            }
+            final Optional<CircuitBreaker> circuitBreaker = policy(clazz, CircuitBreaker.class, instrumented);
+            if (circuitBreaker.isPresent()) {
+                dependency.protect(circuitBreaker.get());
+            }
+            final Optional<AdaptiveConcurrency> concurrency = policy(clazz, AdaptiveConcurrency.class, instrumented);
+            if (concurrency.isPresent()) {
+                dependency.limit(concurrency.get());
+            }
+            final Optional<RateLimited> rateLimited = policy(clazz, RateLimited.class, instrumented);
+            if (rateLimited.isPresent()) {
+                dependency.rateLimit(rateLimited.get());
+            }
+            orphans = dependency.orphans();
+            hedges = hedging ? dependency.hedges() : null;
+            final boolean keyed = Keyed.class.isAssignableFrom(clazz);
+            singleFlight = keyed ? dependency.singleFlight() : null;
+            final Optional<Cached> cached = policy(clazz, Cached.class, instrumented);
+            if (cached.isPresent() && !keyed) {
+                LOG.warn("{} is not Keyed, its results are not cached.", clazz.getName());
+            }
+            cache = cached.isPresent() && keyed ? dependency.cache(cached.get(), failures) : null;
+            final Optional<Prioritized> prioritized = annotation(clazz, Prioritized.class);
+            criticality = prioritized.isPresent() ? prioritized.get().value() : null;
+            final boolean budgeted = conformed && maxAttempts > 1 && conformance.get().retryBudget() > 0;
+            if (budgeted && !instrumented.isPresent()) {
+                LOG.warn("{} is not @Instrumented, its retry budget is ignored.", clazz.getName());
+            }
+            retryBudget = budgeted && instrumented.isPresent() ? dependency.retryBudget(conformance.get()) : null;
+        }
+
+        /**
+         * The annotation of a policy shared by the invocations of a dependency (a bulkhead, a circuit breaker etc),
+         * which is ignored unless the Callable is {@link Instrumented}: the invocations which are not instrumented
+         * share the global dependency, to which a policy would apply process wide.
+         */
+        private static <V extends Annotation> Optional<V> policy(final Class<?> clazz, final Class<V> type,
+                                                                 final Optional<Instrumented> instrumented) {
+            final Optional<V> policy = annotation(clazz, type);
+            if (policy.isPresent() && !instrumented.isPresent()) {
+                LOG.warn("{} is not @Instrumented, its @{} is ignored.", clazz.getName(), type.getSimpleName());
+                return Optional.absent();
+            }
+            return policy;
+        }
+
+        /**
+         * The delay after which an attempt is hedged, either the fixed hedgeAfter or the hedgeAfterQuantile of the
+         * observed latencies, refreshed periodically once enough latencies were observed. No hedging when negative.
+         */
+        private long hedgeDelayNanos() {
+            if (hedgeHistogram == null || hedgeHistogram.count() < MIN_HEDGE_SAMPLES) {
+                return hedgeAfterNanos;
+            }
+            final long now = System.nanoTime();
+            if (hedgeDelayNanos < 0 || now - hedgeDelayExpiry > 0) {
+                hedgeDelayNanos = hedgeHistogram.valueAtNanos(hedgeAfterQuantile);
+                hedgeDelayExpiry = now + HEDGE_DELAY_REFRESH_NANOS;
+            }
+            return hedgeDelayNanos;
+        }
+
+        /**
+         * The delay before the given retry (1 for the first retry): exponentially growing from the initial backoff,
+         * bounded by the max backoff and randomized by the jitter.
+         */
+        private long backoffNanos(final int retry) {
+            if (backoffNanos <= 0) {
+                return 0;
+            }
+            final double delay = Math.min(backoffNanos * Math.pow(backoffMultiplier, retry - 1), maxBackoffNanos);
+            return (long) (jitter > 0 ? delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()) : delay);
+        }
 
+        private static InvocationPlan of(final Callable<?> callable) {
+            return PLANS.getUnchecked(callable.getClass());
+        }
+    }
+
+    /**
+     * Records the executions of the Callables of a class; being shared by their concurrent invocations, the
+     * instrumentors hold no per invocation state, which is carried by the {@link InvocationContext} instead.
+     */
     private static abstract class Instrumentation {
 
-        abstract void start();
+        abstract void start(InvocationContext context);
+
+        abstract void trackSuccess(InvocationContext context);
 
-        abstract void trackSuccess();
+        abstract void trackFailure(InvocationContext context);
 
-        abstract void trackFailure(Throwable t);
+        /**
+         * Tracks the run of an execution on its thread, once its Callable returned; only called when timed.
+         */
+        void trackRun(final InvocationContext context) {}
 
-        protected static Instrumentation on(final Callable<?> callable) {
-            final Optional<Instrumented> instrumented = annotation(callable, Instrumented.class);
-            return instrumented.isPresent() ? new DesiredInstrumentation(instrumented.get()) :
+        /**
+         * Tracks a call, once its outcome is known to the caller: the time it took, retries included, and the time
+         * its attempts spent queued and running, -1 when none ran (e.g. when the result was cached); only called when
+         * timed.
+         */
+        void trackCall(final long elapsedNanos, final long queuedNanos, final long ranNanos) {}
+
+        protected static Instrumentation on(final Optional<Instrumented> instrumented, final Dependency dependency) {
+            return instrumented.isPresent() ? new DesiredInstrumentation(instrumented.get(), dependency) :
                 NoOpInstrumentation.INSTANCE;
         }
     }
@@ -178,45 +1068,62 @@ public final class ServiceInvocation<T> {
         NoOpInstrumentation() {}
 
         @Override
-        void start() {}
+        void start(final InvocationContext context) {}
 
         @Override
-        void trackSuccess() {}
+        void trackSuccess(final InvocationContext context) {}
 
         @Override
-        void trackFailure(final Throwable th) {}
+        void trackFailure(final InvocationContext context) {}
     }
 
 
+    /**
+     * The desired instrumentors, as an array so that recording an invocation does not allocate an iterator.
+     */
     private static class DesiredInstrumentation extends Instrumentation {
-        private final ImmutableList<Instrumentation> instrumentors;
+        private final Instrumentation[] instrumentors;
 
-        public DesiredInstrumentation(final Instrumented instrumented) {
+        public DesiredInstrumentation(final Instrumented instrumented, final Dependency dependency) {
             final ImmutableList.Builder<Instrumentation> builder = ImmutableList.builder();
-            addTimeInstrumenation(instrumented, builder);
+            addTimeInstrumenation(instrumented, dependency, builder);
             addLogInstrumentation(instrumented, builder);
-            addCounterInstrumentation(instrumented, builder);
-            instrumentors = builder.build();
+            addCounterInstrumentation(instrumented, dependency, builder);
+            instrumentors = builder.build().toArray(new Instrumentation[0]);
+        }
+
+        @Override
+        void start(final InvocationContext context) {
+            for (final Instrumentation instrumentation : instrumentors) {
+                instrumentation.start(context);
+            }
+        }
+
+        @Override
+        void trackSuccess(final InvocationContext context) {
+            for (final Instrumentation instrumentation : instrumentors) {
+                instrumentation.trackSuccess(context);
+            }
         }
 
         @Override
-        void start() {
+        void trackFailure(final InvocationContext context) {
             for (final Instrumentation instrumentation : instrumentors) {
-                instrumentation.start();
+                instrumentation.trackFailure(context);
             }
         }
 
         @Override
-        void trackSuccess() {
+        void trackRun(final InvocationContext context) {
             for (final Instrumentation instrumentation : instrumentors) {
-                instrumentation.trackSuccess();
+                instrumentation.trackRun(context);
             }
         }
 
         @Override
-        void trackFailure(final Throwable th) {
+        void trackCall(final long elapsedNanos, final long queuedNanos, final long ranNanos) {
             for (final Instrumentation instrumentation : instrumentors) {
-                instrumentation.trackFailure(th);
+                instrumentation.trackCall(elapsedNanos, queuedNanos, ranNanos);
             }
         }
 
@@ -227,110 +1134,155 @@ public final class ServiceInvocation<T> {
             }
         }
 
-        private void addTimeInstrumenation(final Instrumented instrumented,
+        private void addTimeInstrumenation(final Instrumented instrumented, final Dependency dependency,
                                            final ImmutableList.Builder<Instrumentation> builder) {
             if (instrumented.timed()) {
-                builder.add(new TimeInstrumentation(instrumented));
+                builder.add(new TimeInstrumentation(instrumented, dependency));
             }
         }
 
-        private void addCounterInstrumentation(final Instrumented instrumented,
+        private void addCounterInstrumentation(final Instrumented instrumented, final Dependency dependency,
                                                final ImmutableList.Builder<Instrumentation> builder) {
             if (instrumented.count()) {
-                builder.add(new CountInstrumentation(instrumented));
+                builder.add(new CountInstrumentation(instrumented, dependency));
             }
         }
     }
 
+    /**
+     * Records, per attempt, the time it took (as a success or a failure), waited to run and ran on its thread;
+     * and per call, the time it took end to end, and its attempts waited and ran in total.
+     */
     private static class TimeInstrumentation extends Instrumentation {
-
-        private long start;
-        private final Instrumented instrumented;
-
-        private TimeInstrumentation(final Instrumented instrumented) {
-            this.instrumented = instrumented;
+        private final LatencyHistogram success;
+        private final LatencyHistogram failure;
+        private final LatencyHistogram queue;
+        private final LatencyHistogram execution;
+        private final LatencyHistogram call;
+        private final LatencyHistogram callQueue;
+        private final LatencyHistogram callExecution;
+
+        private TimeInstrumentation(final Instrumented instrumented, final Dependency dependency) {
+            success = dependency.histogram("Success-Time", instrumented);
+            failure = dependency.histogram("Failure-Time", instrumented);
+            queue = dependency.histogram("Queue-Time", instrumented);
+            execution = dependency.histogram("Execution-Time", instrumented);
+            call = dependency.histogram("Call-Time", instrumented);
+            callQueue = dependency.histogram("Call-Queue-Time", instrumented);
+            callExecution = dependency.histogram("Call-Execution-Time", instrumented);
         }
 
         @Override
-        void start() {
-            start = Clock.defaultClock().tick();
+        void start(final InvocationContext context) {}
+
+        @Override
+        void trackSuccess(final InvocationContext context) {
+            success.record(context.elapsedNanos());
         }
 
         @Override
-        void trackSuccess() {
-            timer(instrumented, "Failure").update(Clock.defaultClock().tick() - start, NANOSECONDS);
+        void trackFailure(final InvocationContext context) {
+            failure.record(context.elapsedNanos());
         }
 
         @Override
-        void trackFailure(final Throwable th) {
-            timer(instrumented, "Success").update(Clock.defaultClock().tick() - start, NANOSECONDS);
+        void trackRun(final InvocationContext context) {
+            queue.record(context.queueNanos());
+            execution.record(context.ranNanos());
         }
 
-        private Timer timer(final Instrumented instrumented, final String name) {
-            return newTimer(instrumented.getClass(), name, instrumented.method(), MILLISECONDS, MINUTES);
+        @Override
+        void trackCall(final long elapsedNanos, final long queuedNanos, final long ranNanos) {
+            call.record(elapsedNanos);
+            if (ranNanos >= 0) {
+                callQueue.record(queuedNanos);
+                callExecution.record(ranNanos);
+            }
         }
     }
 
+    /**
+     * Counts the attempts which succeeded, failed (in total and per {@link FailureKind}, e.g. Connect-Failure) and the
+     * retries.
+     */
     private static class CountInstrumentation extends Instrumentation {
-        private final Instrumented instrumented;
-
-        private CountInstrumentation(final Instrumented instrumented) {
-            this.instrumented = instrumented;
+        private final StripedCounter success;
+        private final StripedCounter failure;
+        private final StripedCounter[] failuresByKind = new StripedCounter[FailureKind.values().length];
+        private final StripedCounter retry;
+        private final Failures failures;
+
+        private CountInstrumentation(final Instrumented instrumented, final Dependency dependency) {
+            success = dependency.counter("Success");
+            failure = dependency.counter("Failure");
+            for (final FailureKind kind : FailureKind.values()) {
+                failuresByKind[kind.ordinal()] = dependency.counter(metricName(kind));
+            }
+            retry = dependency.counter("Retry");
+            failures = dependency.failures(instrumented.classifier());
         }
 
-        @Override
-        void start() {
-
+        /**
+         * The name of the failure counter of the given kind, e.g. Circuit-Open-Failure.
+         */
+        private static String metricName(final FailureKind kind) {
+            final StringBuilder name = new StringBuilder();
+            for (final String word : kind.name().split("_")) {
+                name.append(word.charAt(0)).append(word.substring(1).toLowerCase()).append('-');
+            }
+            return name.append("Failure").toString();
         }
 
         @Override
-        void trackSuccess() {
-            counter(instrumented, "Success").inc();
+        void start(final InvocationContext context) {
+            if (context.attempt() > 1) {
+                retry.inc();
+            }
         }
 
         @Override
-        void trackFailure(final Throwable th) {
-            Throwables.getRootCause(th);
-            if (ConnectException.class.isAssignableFrom(th.getClass())) {// Http connection timeouts
-                counter(instrumented, "Connect-Failure").inc();
-            }
-            counter(instrumented, "Failure").inc();
+        void trackSuccess(final InvocationContext context) {
+            success.inc();
         }
 
-        private Counter counter(final Instrumented instrumented, final String name) {
-            return Metrics.newCounter(instrumented.getClass(), name, instrumented.method());
+        @Override
+        void trackFailure(final InvocationContext context) {
+            failuresByKind[failures.kind(context.failure()).ordinal()].inc();
+            failure.inc();
         }
 
     }
 
     private static class LogInstrumentation extends Instrumentation {
-        private final Instrumented instrumented;
+        private final String name;
 
         private LogInstrumentation(final Instrumented instrumented) {
-            this.instrumented = instrumented;
+            this.name = instrumented.clazz().getSimpleName() + "." + instrumented.method();
         }
 
         @Override
-        void start() {
-            LOG.info("Executing {}.{} call", instrumented.getClass(), instrumented.method());
+        void start(final InvocationContext context) {
+            LOG.info("Executing {} call, attempt {}", name, context.attempt());
         }
 
         @Override
-        void trackSuccess() {
-            LOG.info("{}.{} call Succeeded!", instrumented.getClass(), instrumented.method());
+        void trackSuccess(final InvocationContext context) {
+            LOG.info("{} call Succeeded!", name);
         }
 
         @Override
-        void trackFailure(final Throwable th) {
-            LOG.warn("{}.{} call FAILED.", instrumented.getClass(), instrumented.method());
-            LOG.debug(String.format("%s.%s call FAILED, cause: ", instrumented.getClass(), instrumented.method()), th);
+        void trackFailure(final InvocationContext context) {
+            LOG.warn("{} call FAILED.", name);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(String.format("%s call FAILED, cause: ", name), context.failure());
+            }
         }
     }
 
 
-    private static <V extends Annotation> Optional<V> annotation(final Callable<?> callable, final Class<V> clazz) {
+    private static <V extends Annotation> Optional<V> annotation(final Class<?> callableClass, final Class<V> clazz) {
         try {
-            return Optional.fromNullable(callable.getClass().getMethod("call").getAnnotation(clazz));
+            return Optional.fromNullable(callableClass.getMethod("call").getAnnotation(clazz));
         } catch (final Exception e) { // Should not happen
             return Optional.absent();
         }
@@ -0,0 +1,133 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+/**
+ * The {@link Keyed} invocations of a dependency in flight: the first invocation of a key executes the call, the ones
+ * arriving until it completes join it and are handed its outcome. The flights are scoped by the Callable class (see
+ * {@link ScopedKey}).
+ * <p>
+ * Each caller gets its own future, cancelling it only leaves the flight; the execution is cancelled once every caller
+ * has left.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class SingleFlight {
+    private final ConcurrentMap<Object, Flight<?>> flights = new ConcurrentHashMap<Object, Flight<?>>();
+    private final StripedCounter collapsed;
+
+    SingleFlight(final Dependency dependency) {
+        collapsed = dependency.counter("Collapsed-Calls");
+        Metrics.newGauge(dependency.metricName("Collapsing-Keys"), new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return flights.size();
+            }
+        });
+    }
+
+    /**
+     * Joins the flight of the given key of the given Callable class if any, otherwise starts one with the execution
+     * supplied.
+     */
+    @SuppressWarnings("unchecked")
+    <T> ListenableFuture<T> collapse(final Class<?> scope, final Object callKey,
+                                     final Supplier<ListenableFuture<T>> execution) {
+        final ScopedKey key = new ScopedKey(scope, callKey);
+        while (true) {
+            final Flight<?> existing = flights.get(key);
+            if (existing != null) {
+                if (existing.join()) {
+                    collapsed.inc();
+                    return ((Flight<T>) existing).follow();
+                }
+                flights.remove(key, existing); // Every caller left, about to be removed
+                continue;
+            }
+            final Flight<T> flight = new Flight<T>();
+            if (flights.putIfAbsent(key, flight) != null) {
+                continue;
+            }
+            flight.shared.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    flights.remove(key, flight);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            final ListenableFuture<T> follower = flight.follow();
+            try {
+                flight.start(execution.get());
+            } catch (final RuntimeException e) {
+                flight.shared.setException(e);
+            }
+            return follower;
+        }
+    }
+
+    private static final class Flight<T> {
+        private final SettableFuture<T> shared = SettableFuture.create();
+        private final AtomicInteger callers = new AtomicInteger(1);
+
+        private boolean join() {
+            while (true) {
+                final int current = callers.get();
+                if (current == 0 || shared.isDone()) {
+                    return false;
+                }
+                if (callers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void start(final ListenableFuture<T> execution) {
+            forward(execution, shared);
+            shared.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (shared.isCancelled()) {
+                        execution.cancel(false);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private ListenableFuture<T> follow() {
+            final SettableFuture<T> follower = SettableFuture.create();
+            forward(shared, follower);
+            follower.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (follower.isCancelled() && callers.decrementAndGet() == 0) {
+                        shared.cancel(false);
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return follower;
+        }
+
+        private static <T> void forward(final ListenableFuture<T> from, final SettableFuture<T> to) {
+            Futures.addCallback(from, new FutureCallback<T>() {
+                @Override
+                public void onSuccess(final T value) {
+                    to.set(value);
+                }
+                @Override
+                public void onFailure(final Throwable th) {
+                    to.setException(th);
+                }
+            });
+        }
+    }
+}
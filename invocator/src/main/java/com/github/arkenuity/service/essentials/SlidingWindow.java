@@ -0,0 +1,128 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A time based sliding window of call outcomes, split into buckets which are recycled as time goes by. Recording an
+ * outcome takes a couple of atomic increments on the current bucket, without any lock; a bucket being recycled while
+ * recorded into may lose a few outcomes, which is acceptable for the statistics derived from the window.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class SlidingWindow {
+    /** The epoch of the buckets which have not recorded anything since created or reset. */
+    private static final long RESET = Long.MIN_VALUE;
+
+    private final long bucketNanos;
+    private final Bucket[] buckets;
+
+    SlidingWindow(final long windowNanos, final int bucketCount) {
+        this.bucketNanos = Math.max(1, windowNanos / bucketCount);
+        this.buckets = new Bucket[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    void record(final boolean failure, final boolean slow) {
+        final Bucket bucket = current(System.nanoTime() / bucketNanos);
+        bucket.calls.incrementAndGet();
+        if (failure) {
+            bucket.failures.incrementAndGet();
+        }
+        if (slow) {
+            bucket.slow.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a call unless the window already holds the given number of calls, false then. The calls are reserved on
+     * the current bucket by compare and set, so that concurrent callers cannot together overrun the limit.
+     */
+    boolean tryRecord(final double limit) {
+        final long epoch = System.nanoTime() / bucketNanos;
+        final Bucket current = current(epoch);
+        long others = 0;
+        for (final Bucket bucket : buckets) {
+            final long bucketEpoch = bucket.epoch.get();
+            if (bucket != current && bucketEpoch != RESET && epoch - bucketEpoch < buckets.length) {
+                others += bucket.calls.get();
+            }
+        }
+        while (true) {
+            final long calls = current.calls.get();
+            if (others + calls >= limit) {
+                return false;
+            }
+            if (current.calls.compareAndSet(calls, calls + 1)) {
+                return true;
+            }
+        }
+    }
+
+    Snapshot snapshot() {
+        final long epoch = System.nanoTime() / bucketNanos;
+        long calls = 0;
+        long failures = 0;
+        long slow = 0;
+        for (final Bucket bucket : buckets) {
+            final long bucketEpoch = bucket.epoch.get();
+            if (bucketEpoch != RESET && epoch - bucketEpoch < buckets.length) {
+                calls += bucket.calls.get();
+                failures += bucket.failures.get();
+                slow += bucket.slow.get();
+            }
+        }
+        return new Snapshot(calls, failures, slow);
+    }
+
+    /**
+     * Clears the outcomes recorded so far.
+     */
+    void reset() {
+        for (final Bucket bucket : buckets) {
+            bucket.epoch.set(RESET);
+            bucket.calls.set(0);
+            bucket.failures.set(0);
+            bucket.slow.set(0);
+        }
+    }
+
+    private Bucket current(final long epoch) {
+        final Bucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+        final long bucketEpoch = bucket.epoch.get();
+        if (bucketEpoch != epoch && bucket.epoch.compareAndSet(bucketEpoch, epoch)) {
+            bucket.calls.set(0);
+            bucket.failures.set(0);
+            bucket.slow.set(0);
+        }
+        return bucket;
+    }
+
+    private static final class Bucket {
+        private final AtomicLong epoch = new AtomicLong(RESET);
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong slow = new AtomicLong();
+    }
+
+    static final class Snapshot {
+        final long calls;
+        final long failures;
+        final long slow;
+
+        private Snapshot(final long calls, final long failures, final long slow) {
+            this.calls = calls;
+            this.failures = failures;
+            this.slow = slow;
+        }
+
+        double failureRate() {
+            return calls == 0 ? 0 : (double) failures / calls;
+        }
+
+        double slowRate() {
+            return calls == 0 ? 0 : (double) slow / calls;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * A counter incremented on the hot path of the invocations: a {@link LongAdder}, whose cells are striped across the
+ * threads, rather than the single atomic long of a metrics {@link Counter} which every invocation of a dependency
+ * contends on. It is still exported as a metrics counter, into which the increments are folded by the
+ * {@link MetricsView}.
+ * <p>
+ * Created through {@link MetricsView#counter(MetricName)}, once per name.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class StripedCounter {
+    private final LongAdder count = new LongAdder();
+    private final Counter view;
+    private long folded;
+
+    StripedCounter(final MetricName name) {
+        view = Metrics.newCounter(name);
+    }
+
+    void inc() {
+        count.increment();
+    }
+
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Adds the increments since the last fold to the exported counter.
+     */
+    synchronized void fold() {
+        final long sum = count.sum();
+        view.inc(sum - folded);
+        folded = sum;
+    }
+}
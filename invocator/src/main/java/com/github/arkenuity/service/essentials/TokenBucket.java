@@ -0,0 +1,62 @@
+package com.github.arkenuity.service.essentials;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link RateLimited} token bucket of a dependency, implemented as a generic cell rate algorithm: the whole state
+ * is the theoretical arrival time of the next invocation, which each admitted invocation pushes by the emission
+ * interval. Admitting an invocation is a read and a CAS on a single atomic long, no lock is taken and no refill task
+ * runs.
+ *
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+final class TokenBucket {
+    /** Returned by {@link #acquire(long)} when the invocation is rejected. */
+    static final long REJECTED = -1;
+
+    private final Dependency dependency;
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final long maxWaitNanos;
+    private final AtomicLong arrival = new AtomicLong(System.nanoTime());
+    private final StripedCounter throttled;
+    private final StripedCounter delayed;
+
+    TokenBucket(final Dependency dependency, final RateLimited config) {
+        this.dependency = dependency;
+        this.intervalNanos = Math.max(1, (long) (config.per().toNanos(1) / config.rate()));
+        this.burstNanos = intervalNanos * Math.max(1, config.burst());
+        this.maxWaitNanos = Math.max(0, config.maxWaitUnit().toNanos(config.maxWait()));
+        throttled = dependency.counter("Rate-Limited");
+        delayed = dependency.counter("Rate-Delayed");
+    }
+
+    /**
+     * Takes a token, returning the time to wait for it (0 when available right away) or {@link #REJECTED} when it
+     * would have to wait longer than the max wait, or than the given deadline.
+     */
+    long acquire(final long deadlineNanos) {
+        final long maxWait = Math.min(maxWaitNanos, deadlineNanos);
+        while (true) {
+            final long now = System.nanoTime();
+            final long current = arrival.get();
+            final long next = Math.max(current - now, 0) + now + intervalNanos;
+            final long wait = next - now - burstNanos;
+            if (wait > maxWait) {
+                throttled.inc();
+                return REJECTED;
+            }
+            if (arrival.compareAndSet(current, next)) {
+                if (wait > 0) {
+                    delayed.inc();
+                    return wait;
+                }
+                return 0;
+            }
+        }
+    }
+
+    RateLimitedException reject() {
+        return new RateLimitedException(String.format("Rate limit of %s exceeded", dependency));
+    }
+}
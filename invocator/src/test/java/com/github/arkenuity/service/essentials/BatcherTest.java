@@ -0,0 +1,182 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class BatcherTest {
+
+    /**
+     * Doubles the keys it is asked for, except the negative ones, recording each batch and the thread building it.
+     */
+    private static final class Doubling implements Batcher.Bulk<Integer, Integer> {
+        private final List<List<Integer>> batches = new CopyOnWriteArrayList<List<Integer>>();
+        private final List<String> threads = new CopyOnWriteArrayList<String>();
+        private final long sleepMillis;
+
+        private Doubling(final long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Override
+        public Callable<Map<Integer, Integer>> of(final List<Integer> keys) {
+            batches.add(keys);
+            threads.add(Thread.currentThread().getName());
+            return new Callable<Map<Integer, Integer>>() {
+                @Override
+                public Map<Integer, Integer> call() throws InterruptedException {
+                    Thread.sleep(sleepMillis);
+                    final Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+                    for (final Integer key : keys) {
+                        if (key >= 0) {
+                            values.put(key, key * 2);
+                        }
+                    }
+                    return values;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void flushesOnceFull() throws Exception {
+        final Doubling bulk = new Doubling(0);
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "full", bulk)
+                .maxBatchSize(3).maxDelay(10, SECONDS).build();
+        final ListenableFuture<Integer> one = batcher.submit(1);
+        final ListenableFuture<Integer> two = batcher.submit(2);
+        final ListenableFuture<Integer> again = batcher.submit(1);
+        assertFalse(one.isDone());
+        final ListenableFuture<Integer> three = batcher.submit(3);
+        assertEquals(one.get(1, SECONDS).intValue(), 2);
+        assertEquals(two.get(1, SECONDS).intValue(), 4);
+        assertEquals(again.get(1, SECONDS).intValue(), 2);
+        assertEquals(three.get(1, SECONDS).intValue(), 6);
+        assertEquals(bulk.batches.size(), 1);
+        assertEquals(bulk.batches.get(0).size(), 3);
+    }
+
+    @Test
+    public void flushesAfterTheMaxDelay() throws Exception {
+        final Doubling bulk = new Doubling(0);
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "delayed", bulk)
+                .maxDelay(50, MILLISECONDS).build();
+        final long startedAt = System.nanoTime();
+        final ListenableFuture<Integer> one = batcher.submit(1);
+        final ListenableFuture<Integer> missing = batcher.submit(-1);
+        assertEquals(one.get(1, SECONDS).intValue(), 2);
+        assertNull(missing.get(1, SECONDS));
+        assertTrue(System.nanoTime() - startedAt >= MILLISECONDS.toNanos(50));
+        assertEquals(bulk.batches.size(), 1);
+        assertEquals(bulk.batches.get(0).size(), 2);
+    }
+
+    @Test
+    public void failsEveryItemOfAFailedBatch() throws Exception {
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "failed",
+                new Batcher.Bulk<Integer, Integer>() {
+                    @Override
+                    public Callable<Map<Integer, Integer>> of(final List<Integer> keys) {
+                        return new Callable<Map<Integer, Integer>>() {
+                            @Override
+                            public Map<Integer, Integer> call() {
+                                throw new IllegalStateException("Bulk endpoint down");
+                            }
+                        };
+                    }
+                }).maxBatchSize(2).build();
+        final ListenableFuture<Integer> one = batcher.submit(1);
+        final ListenableFuture<Integer> two = batcher.submit(2);
+        for (final ListenableFuture<Integer> item : new ListenableFuture[] {one, two}) {
+            try {
+                item.get(1, SECONDS);
+                fail("Should have failed");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void rejectsOnceTheEngineIsShutDown() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("batcher-shutdown").maxThreads(1).build();
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "shutdown", new Doubling(0))
+                .maxDelay(10, MILLISECONDS).engine(engine).build();
+        engine.shutdown();
+        try {
+            batcher.execute(1);
+            fail("Should have been rejected");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException, String.valueOf(e.getCause()));
+        }
+    }
+
+    @Test
+    public void boundsTheItemsByTheDeadlineOfTheirCaller() throws Exception {
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "deadline", new Doubling(1000))
+                .maxDelay(10, MILLISECONDS).build();
+        final long startedAt = System.nanoTime();
+        try {
+            Deadline.after(100, MILLISECONDS).call(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return batcher.execute(1);
+                }
+            });
+            fail("Should have timed out");
+        } catch (final DeadlineExceededException e) {
+            // expected, surfaced as is
+        }
+        assertTrue(System.nanoTime() - startedAt < MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void boundsTheItemsByTheMaxWait() throws Exception {
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "maxWait", new Doubling(1000))
+                .maxDelay(10, MILLISECONDS).maxWait(100, MILLISECONDS).build();
+        final long startedAt = System.nanoTime();
+        try {
+            batcher.execute(1);
+            fail("Should have timed out");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+        }
+        assertTrue(System.nanoTime() - startedAt < MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void buildsTheBatchesOnAnEngineThread() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("batcher-engine").maxThreads(2).build();
+        final Doubling bulk = new Doubling(0);
+        final Batcher<Integer, Integer> batcher = Batcher.builder(BatcherTest.class, "engine", bulk)
+                .maxBatchSize(2).maxDelay(10, MILLISECONDS).engine(engine).build();
+        assertEquals(batcher.execute(1).intValue(), 2); // Flushed by the timer
+        batcher.submit(2);
+        assertEquals(batcher.execute(3).intValue(), 6); // Flushed once full
+        assertEquals(bulk.threads.size(), 2);
+        for (final String thread : bulk.threads) {
+            assertTrue(thread.startsWith("batcher-engine-"), thread);
+        }
+        engine.shutdown();
+    }
+}
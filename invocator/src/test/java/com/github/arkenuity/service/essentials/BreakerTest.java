@@ -0,0 +1,96 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class BreakerTest {
+
+    private static volatile boolean failing;
+
+    public static class Protected implements Callable<String> {
+        @CircuitBreaker(minimumCalls=4, failureRateThreshold=0.5, window=1000, windowUnit=TimeUnit.MILLISECONDS,
+                        openDuration=100, openDurationUnit=TimeUnit.MILLISECONDS, halfOpenCalls=2)
+        @Instrumented(clazz=BreakerTest.class, method="protected", logged=false)
+        public String call() {
+            if (failing) {
+                throw new IllegalStateException("down");
+            }
+            return "up";
+        }
+    }
+
+    @Test
+    public void closedOpenHalfOpenClosed() throws Exception {
+        failing = true;
+        for (int i = 0; i < 4; i++) {
+            Thread.sleep(40); // Spread over several buckets of the window
+            try {
+                ServiceInvocation.execute(new Protected());
+                fail("Should have failed");
+            } catch (final CircuitOpenException e) {
+                fail("Should not be open before the minimum calls");
+            } catch (final ServiceInvocationException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        awaitState(Breaker.OPEN);
+        try {
+            ServiceInvocation.execute(new Protected());
+            fail("Should have been rejected");
+        } catch (final CircuitOpenException e) {
+            assertEquals(e.getStackTrace().length, 0);
+        }
+
+        Thread.sleep(150);
+        failing = false;
+        assertEquals(ServiceInvocation.execute(new Protected()), "up");
+        awaitState(Breaker.HALF_OPEN);
+        assertEquals(ServiceInvocation.execute(new Protected()), "up");
+        awaitState(Breaker.CLOSED);
+
+        // The window was cleared when closed: a single failure is below the minimum calls
+        failing = true;
+        try {
+            ServiceInvocation.execute(new Protected());
+            fail("Should have failed");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Thread.sleep(50);
+        awaitState(Breaker.CLOSED);
+    }
+
+    @Test
+    public void resetWindowForgetsOutcomes() {
+        final SlidingWindow window = new SlidingWindow(TimeUnit.SECONDS.toNanos(10), 10);
+        window.record(true, false);
+        window.record(true, true);
+        assertEquals(window.snapshot().calls, 2);
+        window.reset();
+        assertEquals(window.snapshot().calls, 0);
+        assertEquals(window.snapshot().failures, 0);
+        window.record(false, false);
+        assertEquals(window.snapshot().calls, 1);
+        assertEquals(window.snapshot().failureRate(), 0.0);
+    }
+
+    /**
+     * Waits for the outcomes, recorded once the futures complete, to be accounted for by the breaker.
+     */
+    private static void awaitState(final int state) throws InterruptedException {
+        final Breaker breaker = Dependency.of(BreakerTest.class, "protected").breaker();
+        for (int i = 0; i < 100 && breaker.state() != state; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(breaker.state(), state);
+    }
+}
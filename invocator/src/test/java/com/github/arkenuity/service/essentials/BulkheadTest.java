@@ -0,0 +1,78 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class BulkheadTest {
+
+    private static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+    public static class Isolated implements Callable<String> {
+        @Bulkhead(maxConcurrent=1, maxQueued=1)
+        @Instrumented(clazz=BulkheadTest.class, method="isolated", logged=false)
+        public String call() throws Exception {
+            RELEASE.await(5, TimeUnit.SECONDS);
+            return "done";
+        }
+    }
+
+    /** Declares a bulkhead without the dependency it would isolate. */
+    public static class Unkeyed implements Callable<String> {
+        @Bulkhead(maxConcurrent=1)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Plain implements Callable<String> {
+        public String call() {
+            return "done";
+        }
+    }
+
+    @Test
+    public void queuesThenRejects() throws Exception {
+        final ListenableFuture<String> running = ServiceInvocation.submit(new Isolated());
+        final ListenableFuture<String> queued = ServiceInvocation.submit(new Isolated());
+        final ListenableFuture<String> rejected = ServiceInvocation.submit(new Isolated());
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            fail("Should have been rejected");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof BulkheadFullException);
+        }
+        assertEquals(Dependency.of(BulkheadTest.class, "isolated").bulkhead().queued(), 1);
+        RELEASE.countDown();
+        assertEquals(running.get(), "done");
+        assertEquals(queued.get(), "done");
+        assertEquals(Dependency.of(BulkheadTest.class, "isolated").bulkhead().inUse(), 0);
+    }
+
+    @Test
+    public void ignoredWithoutInstrumented() throws Exception {
+        final List<ListenableFuture<String>> calls = new ArrayList<ListenableFuture<String>>();
+        calls.add(ServiceInvocation.submit(new Unkeyed()));
+        for (int i = 0; i < 20; i++) {
+            calls.add(ServiceInvocation.submit(new Plain()));
+            calls.add(ServiceInvocation.submit(new Unkeyed()));
+        }
+        for (final ListenableFuture<String> call : calls) {
+            assertEquals(call.get(), "done");
+        }
+    }
+}
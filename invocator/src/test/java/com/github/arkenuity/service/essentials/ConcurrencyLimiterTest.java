@@ -0,0 +1,109 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final AtomicInteger HEDGED_CALLS = new AtomicInteger();
+
+    public static class Hedged implements Callable<String> {
+        @AdaptiveConcurrency(initialLimit=20, backoffRatio=0.5)
+        @Conform(hedgeAfter=20)
+        @Instrumented(clazz=ConcurrencyLimiterTest.class, method="hedged", logged=false)
+        public String call() throws InterruptedException {
+            if (HEDGED_CALLS.incrementAndGet() % 2 == 1) { // The first execution of each call is slow
+                Thread.sleep(500);
+            }
+            return "done";
+        }
+    }
+
+    public static class Slow implements Callable<String> {
+        @AdaptiveConcurrency(initialLimit=20, backoffRatio=0.5)
+        @Conform(maxWaitTime=20)
+        @Instrumented(clazz=ConcurrencyLimiterTest.class, method="slow", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(500);
+            return "done";
+        }
+    }
+
+    public static class Isolated implements Callable<String> {
+        @AdaptiveConcurrency(initialLimit=1, maxLimit=1)
+        @Bulkhead(maxConcurrent=1, maxQueued=1)
+        @Instrumented(clazz=ConcurrencyLimiterTest.class, method="isolated", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(100);
+            return "done";
+        }
+    }
+
+    public static class Single implements Callable<String> {
+        @AdaptiveConcurrency(initialLimit=1, maxLimit=1)
+        @Instrumented(clazz=ConcurrencyLimiterTest.class, method="single", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(100);
+            return "done";
+        }
+    }
+
+    @Test
+    public void callsQueuedForTheBulkheadAreNotInFlight() throws Exception {
+        final ListenableFuture<String> running = ServiceInvocation.submit(new Isolated());
+        final ListenableFuture<String> queued = ServiceInvocation.submit(new Isolated());
+        assertEquals(running.get(1, TimeUnit.SECONDS), "done");
+        assertEquals(queued.get(1, TimeUnit.SECONDS), "done");
+    }
+
+    @Test
+    public void hedgesWhichLostAreNotSampled() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ServiceInvocation.execute(new Hedged()), "done");
+        }
+        Thread.sleep(50); // The losers are cancelled once the hedges won
+        assertEquals(limit("hedged"), 20);
+    }
+
+    @Test
+    public void timeoutsCutTheLimit() throws Exception {
+        try {
+            ServiceInvocation.execute(new Slow());
+            fail("Should have timed out");
+        } catch (final ServiceInvocationException e) {
+            // expected
+        }
+        Thread.sleep(50);
+        assertEquals(limit("slow"), 10);
+    }
+
+    @Test
+    public void shedsTheCallsOverTheLimit() throws Exception {
+        final ListenableFuture<String> admitted = ServiceInvocation.submit(new Single());
+        final ListenableFuture<String> shed = ServiceInvocation.submit(new Single());
+        try {
+            shed.get(1, TimeUnit.SECONDS);
+            fail("Should have been shed");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConcurrencyLimitExceededException, String.valueOf(e.getCause()));
+        }
+        assertEquals(admitted.get(1, TimeUnit.SECONDS), "done");
+    }
+
+    private static int limit(final String method) {
+        return Dependency.of(ConcurrencyLimiterTest.class, method).limiter().limit();
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class DeadlineQueueTest {
+
+    private static final Callable<String> DONE = new Callable<String>() {
+        @Override
+        public String call() {
+            return "done";
+        }
+    };
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {}
+    };
+
+    @Test
+    public void concurrentOffersDoNotOverrunTheCapacity() throws Exception {
+        final DeadlineQueue queue = new DeadlineQueue("bounded", 100, SECONDS.toNanos(1));
+        final AtomicInteger accepted = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        if (queue.offer(NOOP)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(accepted.get(), 100);
+        assertEquals(queue.size(), 100);
+        assertEquals(queue.remainingCapacity(), 0);
+    }
+
+    @Test
+    public void removalsReleaseTheCapacity() throws Exception {
+        final DeadlineQueue queue = new DeadlineQueue("released", 3, SECONDS.toNanos(1));
+        final Runnable removed = new Runnable() {
+            @Override
+            public void run() {}
+        };
+        assertTrue(queue.offer(NOOP));
+        assertTrue(queue.offer(removed));
+        assertTrue(queue.offer(NOOP));
+        assertFalse(queue.offer(NOOP));
+        assertTrue(queue.remove(removed));
+        assertTrue(queue.poll() != null);
+        assertEquals(queue.remainingCapacity(), 2);
+        assertEquals(queue.drainTo(new ArrayList<Runnable>()), 1);
+        assertEquals(queue.remainingCapacity(), 3);
+        assertTrue(queue.offer(NOOP));
+        queue.clear();
+        assertEquals(queue.remainingCapacity(), 3);
+    }
+
+    @Test
+    public void runsTheEarliestDeadlineFirst() throws Exception {
+        final DeadlineQueue queue = new DeadlineQueue("ordered", 10, SECONDS.toNanos(10));
+        final Runnable undeadlined = queue.task(DONE, null);
+        final Runnable later = queue.task(DONE, Deadline.after(2, SECONDS));
+        final Runnable sooner = queue.task(DONE, Deadline.after(1, SECONDS));
+        assertTrue(queue.offer(NOOP));
+        assertTrue(queue.offer(undeadlined));
+        assertTrue(queue.offer(later));
+        assertTrue(queue.offer(sooner));
+        assertSame(queue.poll(), sooner);
+        assertSame(queue.poll(), later);
+        // Then by the default deadline from the time queued
+        assertSame(queue.poll(), NOOP);
+        assertSame(queue.poll(), undeadlined);
+    }
+
+    @Test
+    public void runsTheTasksWithoutDeadlineByTheDefaultDeadline() throws Exception {
+        final DeadlineQueue queue = new DeadlineQueue("aging", 10, MILLISECONDS.toNanos(50));
+        final Runnable undeadlined = queue.task(DONE, null);
+        assertTrue(queue.offer(undeadlined));
+        assertTrue(queue.offer(NOOP));
+        final Runnable later = queue.task(DONE, Deadline.after(100, MILLISECONDS));
+        final Runnable sooner = queue.task(DONE, Deadline.after(10, MILLISECONDS));
+        assertTrue(queue.offer(later));
+        assertTrue(queue.offer(sooner));
+        // Not starved by the tasks with a later deadline queued after them
+        assertSame(queue.poll(), sooner);
+        assertSame(queue.poll(), undeadlined);
+        assertSame(queue.poll(), NOOP);
+        assertSame(queue.poll(), later);
+    }
+
+    @Test
+    public void dropsTheTasksWhoseDeadlinePassedWhileQueued() throws Exception {
+        final DeadlineQueue queue = new DeadlineQueue("expiring", 10, SECONDS.toNanos(1));
+        final DeadlineQueue.Task task = queue.task(DONE, Deadline.after(20, MILLISECONDS));
+        assertTrue(queue.offer(task));
+        Thread.sleep(50);
+        queue.take().run();
+        try {
+            task.future().get();
+            fail("Expired task ran");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException, String.valueOf(e.getCause()));
+        }
+        final MetricName expired = new MetricName(ExecutionEngine.class, "Expired-Tasks", "expiring");
+        assertEquals(MetricsView.counter(expired).count(), 1);
+    }
+}
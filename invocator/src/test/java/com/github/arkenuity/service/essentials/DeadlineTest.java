@@ -0,0 +1,87 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class DeadlineTest {
+
+    private static final CountDownLatch INTERRUPTED = new CountDownLatch(1);
+
+    public static class Unconformed implements Callable<String> {
+        @Instrumented(clazz=DeadlineTest.class, method="unconformed", logged=false)
+        public String call() {
+            try {
+                Thread.sleep(5000);
+            } catch (final InterruptedException e) {
+                INTERRUPTED.countDown();
+            }
+            return "done";
+        }
+    }
+
+    public static class Conformed implements Callable<String> {
+        @Conform(maxWaitTime=5000)
+        @Instrumented(clazz=DeadlineTest.class, method="conformed", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(5000);
+            return "done";
+        }
+    }
+
+    @Test
+    public void timesOutCallsWhichDoNotConform() throws Exception {
+        final long start = System.nanoTime();
+        try {
+            Deadline.after(100, TimeUnit.MILLISECONDS).call(new Callable<String>() {
+                @Override
+                public String call() {
+                    return ServiceInvocation.execute(new Unconformed());
+                }
+            });
+            fail("Should have timed out");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertTrue(INTERRUPTED.await(1, TimeUnit.SECONDS), "Not cancelled");
+    }
+
+    @Test
+    public void timesOutByTheDeadlineWhenSooner() throws Exception {
+        final long start = System.nanoTime();
+        try {
+            Deadline.after(100, TimeUnit.MILLISECONDS).call(new Callable<String>() {
+                @Override
+                public String call() {
+                    return ServiceInvocation.execute(new Conformed());
+                }
+            });
+            fail("Should have timed out");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test(expectedExceptions = DeadlineExceededException.class)
+    public void rejectsCallsPastTheDeadline() throws Exception {
+        final Deadline deadline = Deadline.after(1, TimeUnit.MILLISECONDS);
+        Thread.sleep(10);
+        deadline.call(new Callable<String>() {
+            @Override
+            public String call() {
+                return ServiceInvocation.execute(new Unconformed());
+            }
+        });
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class ExecutionEngineTest {
+
+    public static class Untimed implements Callable<String> {
+        @Instrumented(clazz=ExecutionEngineTest.class, method="untimed", logged=false)
+        public String call() {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    public static class Timed implements Callable<String> {
+        @Conform(maxWaitTime=1000)
+        @Instrumented(clazz=ExecutionEngineTest.class, method="timed", logged=false)
+        public String call() {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    public static class Sleeping implements Callable<String> {
+        private final long sleepMillis;
+
+        public Sleeping(final long sleepMillis) {
+            this.sleepMillis = sleepMillis;
+        }
+
+        @Instrumented(clazz=ExecutionEngineTest.class, method="sleeping", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(sleepMillis);
+            return "done";
+        }
+    }
+
+    @Test
+    public void submitsToTheThreadsOfTheEngine() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("engine-pool").maxThreads(2).build();
+        assertTrue(ServiceInvocation.execute(new Untimed(), engine).startsWith("engine-pool-"));
+        assertTrue(ServiceInvocation.submit(new Timed(), engine).get(1, SECONDS).startsWith("engine-pool-"));
+        engine.shutdown();
+    }
+
+    @Test
+    public void submitsByDeadlineToAnEarliestDeadlineFirstEngine() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("engine-deadlines").maxThreads(1)
+                .earliestDeadlineFirst().build();
+        final CountDownLatch release = new CountDownLatch(1);
+        final ListenableFuture<String> busy = engine.submit(new Callable<String>() {
+            @Override
+            public String call() throws InterruptedException {
+                release.await();
+                return "done";
+            }
+        }, null, Criticality.DEFAULT);
+        // Queued behind the busy thread until its deadline passed, dropped once it reaches the thread
+        final ListenableFuture<String> expiring = engine.submit(new Untimed(), Deadline.after(10, MILLISECONDS),
+                Criticality.DEFAULT);
+        Thread.sleep(50);
+        release.countDown();
+        assertEquals(busy.get(1, SECONDS), "done");
+        try {
+            expiring.get(1, SECONDS);
+            fail("Should have been dropped");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException, String.valueOf(e.getCause()));
+        }
+        engine.shutdown();
+    }
+
+    @Test
+    public void runsTheUntimedBlockingCallsInline() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("engine-inline").maxThreads(2)
+                .inlineUntimedCalls().build();
+        final String caller = Thread.currentThread().getName();
+        assertEquals(ServiceInvocation.execute(new Untimed(), engine), caller);
+        // Unless they need a timeout, or are not blocking
+        assertTrue(ServiceInvocation.execute(new Timed(), engine).startsWith("engine-inline-"));
+        assertTrue(ServiceInvocation.submit(new Untimed(), engine).get(1, SECONDS).startsWith("engine-inline-"));
+        engine.shutdown();
+    }
+
+    @Test
+    public void rejectsTheInvocationsOnceShutDown() throws Exception {
+        for (final ExecutionEngine engine : new ExecutionEngine[] {
+                ExecutionEngine.builder().named("engine-shutdown").maxThreads(1).build(),
+                ExecutionEngine.builder().named("engine-shutdown-inline").maxThreads(1).inlineUntimedCalls().build()}) {
+            engine.shutdown();
+            assertTrue(engine.isShutdown());
+            try {
+                ServiceInvocation.execute(new Untimed(), engine);
+                fail("Should have been rejected");
+            } catch (final ServiceInvocationException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException, String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void drainsTheSubmittedTasksOnShutdown() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("engine-drained").maxThreads(1).build();
+        final ListenableFuture<String> running = ServiceInvocation.submit(new Sleeping(50), engine);
+        final ListenableFuture<String> queued = ServiceInvocation.submit(new Sleeping(50), engine);
+        assertTrue(engine.shutdownGracefully(1, SECONDS));
+        assertTrue(engine.isTerminated());
+        assertEquals(running.get(), "done");
+        assertEquals(queued.get(), "done");
+    }
+
+    @Test
+    public void interruptsTheTasksStillRunningOnceTheShutdownTimedOut() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("engine-stuck").maxThreads(1).build();
+        final ListenableFuture<String> stuck = ServiceInvocation.submit(new Sleeping(10000), engine);
+        Thread.sleep(20);
+        assertFalse(engine.shutdownGracefully(50, MILLISECONDS));
+        assertTrue(engine.awaitTermination(1, SECONDS));
+        try {
+            stuck.get(1, SECONDS);
+            fail("Should have been interrupted");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof InterruptedException, String.valueOf(e.getCause()));
+        }
+    }
+
+    @Test
+    public void failsClearlyWithoutVirtualThreads() {
+        if (ExecutionEngine.virtualThreadsSupported()) {
+            throw new SkipException("Virtual threads are supported by this JVM");
+        }
+        try {
+            ExecutionEngine.builder().virtualThreads().build();
+            fail("Should have required Java 21");
+        } catch (final UnsupportedOperationException e) {
+            assertEquals(e.getMessage(), "Virtual threads require Java 21 or later.");
+        }
+    }
+}
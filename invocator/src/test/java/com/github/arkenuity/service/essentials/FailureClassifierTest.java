@@ -0,0 +1,147 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class FailureClassifierTest {
+
+    private static final AtomicInteger CLASSIFIED = new AtomicInteger();
+
+    /**
+     * Tells the connect failures of a client library raising IllegalStateException, which are not worth retrying.
+     */
+    public static class ClientClassifier extends DefaultFailureClassifier {
+        @Override
+        public FailureKind classify(final Class<? extends Throwable> rootCause) {
+            CLASSIFIED.incrementAndGet();
+            return IllegalStateException.class.isAssignableFrom(rootCause) ? FailureKind.CONNECT :
+                super.classify(rootCause);
+        }
+
+        @Override
+        public boolean retryable(final Class<? extends Throwable> rootCause, final FailureKind kind) {
+            return kind != FailureKind.CONNECT && super.retryable(rootCause, kind);
+        }
+    }
+
+    private abstract static class Failing implements Callable<String> {
+        protected final AtomicInteger executions = new AtomicInteger();
+        private final RuntimeException failure;
+
+        protected Failing(final RuntimeException failure) {
+            this.failure = failure;
+        }
+
+        protected String fail() {
+            executions.incrementAndGet();
+            throw failure;
+        }
+    }
+
+    public static class Classified extends Failing {
+        public Classified(final RuntimeException failure) {
+            super(failure);
+        }
+
+        @Conform(retryCount=2)
+        @Instrumented(clazz=FailureClassifierTest.class, method="classified", logged=false,
+                classifier=ClientClassifier.class)
+        public String call() {
+            return fail();
+        }
+    }
+
+    public static class Defaulted extends Failing {
+        public Defaulted(final RuntimeException failure) {
+            super(failure);
+        }
+
+        @Conform(retryCount=2)
+        @Instrumented(clazz=FailureClassifierTest.class, method="defaulted", logged=false)
+        public String call() {
+            return fail();
+        }
+    }
+
+    @Test
+    public void classifiesByRootCause() {
+        final Failures failures = new Failures(DefaultFailureClassifier.class);
+        assertEquals(failures.kind(new ServiceInvocationException(
+                new IllegalStateException(new SocketTimeoutException("Read timed out")))), FailureKind.TIMEOUT);
+        assertEquals(failures.kind(new RuntimeException(new ConnectException("Connection refused"))),
+                FailureKind.CONNECT);
+        assertEquals(failures.kind(new ServiceInvocationException(new CircuitOpenException("Open"))),
+                FailureKind.CIRCUIT_OPEN);
+        assertEquals(failures.kind(new RateLimitedException("Limited")), FailureKind.REJECTED);
+        // Only the socket timeouts are timeouts, not every interrupted I/O
+        assertEquals(failures.kind(new RuntimeException(new InterruptedIOException("Interrupted"))),
+                FailureKind.APPLICATION);
+        assertEquals(failures.kind(new ConnectException("Connection refused")), FailureKind.CONNECT);
+        assertTrue(failures.retryable(new SocketTimeoutException("Read timed out")));
+        assertFalse(failures.retryable(new RuntimeException(new CircuitOpenException("Open"))));
+    }
+
+    @Test
+    public void classifiesEachRootCauseClassOnce() {
+        final Failures failures = new Failures(ClientClassifier.class);
+        final int classified = CLASSIFIED.get();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(failures.kind(new RuntimeException(new ArithmeticException())), FailureKind.APPLICATION);
+            assertTrue(failures.retryable(new ArithmeticException()));
+        }
+        assertEquals(CLASSIFIED.get(), classified + 1);
+    }
+
+    @Test
+    public void appliesTheClassifierOfTheDependency() {
+        final Classified classified = new Classified(new IllegalStateException("Connection pool closed"));
+        try {
+            ServiceInvocation.execute(classified);
+            fail("Should have failed");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        }
+        assertEquals(classified.executions.get(), 1);
+        assertEquals(Dependency.of(FailureClassifierTest.class, "classified").counter("Connect-Failure").count(), 1);
+    }
+
+    @Test
+    public void retriesTheApplicationFailures() {
+        final Defaulted defaulted = new Defaulted(new IllegalStateException("Flaky"));
+        try {
+            ServiceInvocation.execute(defaulted);
+            fail("Should have failed");
+        } catch (final ServiceInvocationException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+        }
+        assertEquals(defaulted.executions.get(), 3);
+    }
+
+    @Test
+    public void doesNotRetryTheRejections() {
+        for (final RuntimeException rejection : new RuntimeException[] {
+                new RateLimitedException("Limited"), new CircuitOpenException("Open")}) {
+            final Defaulted defaulted = new Defaulted(rejection);
+            try {
+                ServiceInvocation.execute(defaulted);
+                fail("Should have failed");
+            } catch (final ServiceInvocationException e) {
+                // expected, surfaced as is
+            }
+            assertEquals(defaulted.executions.get(), 1, rejection.toString());
+        }
+    }
+}
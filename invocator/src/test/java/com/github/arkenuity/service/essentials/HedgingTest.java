@@ -0,0 +1,51 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class HedgingTest {
+
+    public static class Straggler implements Callable<String> {
+        private final AtomicInteger executions = new AtomicInteger();
+        private final boolean straggling;
+
+        public Straggler(final boolean straggling) {
+            this.straggling = straggling;
+        }
+
+        @Conform(hedgeAfter=20)
+        @Instrumented(clazz=HedgingTest.class, method="straggler", logged=false)
+        public String call() throws InterruptedException {
+            if (executions.incrementAndGet() == 1 && straggling) { // The first execution straggles
+                Thread.sleep(1000);
+                return "straggled";
+            }
+            return "hedged";
+        }
+    }
+
+    @Test
+    public void hedgeWinsOverTheStraggler() throws Exception {
+        ServiceInvocation.execute(new Straggler(false)); // Builds the plan of the Callable class
+        final Dependency dependency = Dependency.of(HedgingTest.class, "straggler");
+        final long hedged = dependency.counter("Hedged-Attempts").count();
+        final long won = dependency.counter("Hedges-Won").count();
+        final Straggler straggler = new Straggler(true);
+        final long startedAt = System.currentTimeMillis();
+        assertEquals(ServiceInvocation.execute(straggler), "hedged");
+        final long elapsed = System.currentTimeMillis() - startedAt;
+        assertTrue(elapsed < 500, elapsed + "ms");
+        assertEquals(straggler.executions.get(), 2);
+        assertEquals(dependency.counter("Hedged-Attempts").count(), hedged + 1);
+        // Recorded before the caller got the result of the hedge
+        assertEquals(dependency.counter("Hedges-Won").count(), won + 1);
+    }
+}
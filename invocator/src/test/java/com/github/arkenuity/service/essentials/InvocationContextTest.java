@@ -0,0 +1,84 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class InvocationContextTest {
+
+    public static class Parent implements Callable<String> {
+        @Instrumented(clazz=InvocationContextTest.class, method="parent", logged=false, snapshotInterval=200,
+                snapshotIntervalUnit=MILLISECONDS)
+        public String call() {
+            return ServiceInvocation.execute(new Child());
+        }
+    }
+
+    public static class Child implements Callable<String> {
+        @Instrumented(clazz=InvocationContextTest.class, method="child", logged=false, snapshotInterval=200,
+                snapshotIntervalUnit=MILLISECONDS)
+        public String call() throws InterruptedException {
+            Thread.sleep(100);
+            return "done";
+        }
+    }
+
+    public static class Blocker implements Callable<String> {
+        @Instrumented(clazz=InvocationContextTest.class, method="blocker", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(200);
+            return "done";
+        }
+    }
+
+    /**
+     * The max latency of the single call recorded, once it became the snapshot.
+     */
+    private static long recorded(final LatencyHistogram histogram) throws InterruptedException {
+        for (int i = 0; i < 100 && histogram.count() < 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(histogram.count(), 1);
+        return histogram.valueAtNanos(1);
+    }
+
+    private static LatencyHistogram histogram(final Class<? extends Callable<?>> clazz, final String method,
+                                              final String name) throws Exception {
+        final Instrumented config = clazz.getMethod("call").getAnnotation(Instrumented.class);
+        return Dependency.of(InvocationContextTest.class, method).histogram(name, config);
+    }
+
+    @Test
+    public void totalsTheQueueAndRunOfEachCallSeparately() throws Exception {
+        final LatencyHistogram parentQueue = histogram(Parent.class, "parent", "Call-Queue-Time");
+        final LatencyHistogram parentRun = histogram(Parent.class, "parent", "Call-Execution-Time");
+        final LatencyHistogram childQueue = histogram(Child.class, "child", "Call-Queue-Time");
+        final LatencyHistogram childRun = histogram(Child.class, "child", "Call-Execution-Time");
+        Thread.sleep(250); // The calls below are recorded once the snapshot interval elapsed, to be the next snapshot
+        final ExecutionEngine engine = ExecutionEngine.builder().named("nested").maxThreads(1).build();
+        ServiceInvocation.submit(new Blocker(), engine);
+        // Queued behind the blocker, then running the child on the default engine
+        final ListenableFuture<String> parent = ServiceInvocation.submit(new Parent(), engine);
+        assertEquals(parent.get(1, SECONDS), "done");
+        final long parentQueued = recorded(parentQueue);
+        final long parentRan = recorded(parentRun);
+        final long childQueued = recorded(childQueue);
+        final long childRan = recorded(childRun);
+        assertTrue(parentQueued >= MILLISECONDS.toNanos(100), parentQueued + "ns");
+        // The run of the parent includes the nested call, whose queue does not include the queue of the parent
+        assertTrue(parentRan >= childRan, parentRan + "ns, child " + childRan + "ns");
+        assertTrue(childRan >= MILLISECONDS.toNanos(90), childRan + "ns");
+        assertTrue(childQueued < MILLISECONDS.toNanos(80), childQueued + "ns");
+        engine.shutdown();
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class LaneQueueTest {
+
+    private static final Callable<String> DONE = new Callable<String>() {
+        @Override
+        public String call() {
+            return "done";
+        }
+    };
+
+    private static LaneQueue queue(final String name, final int capacity, final int laneCapacity) {
+        return new LaneQueue(name, true, capacity, new int[] {laneCapacity, laneCapacity, laneCapacity, laneCapacity},
+                new int[] {8, 4, 2, 1});
+    }
+
+    @Test
+    public void shedsTheNewestTaskOfTheLeastCriticalLane() throws Exception {
+        final LaneQueue queue = queue("shedding", 3, 3);
+        final LaneQueue.Task batch = queue.task(DONE, Criticality.BATCH);
+        final LaneQueue.Task oldest = queue.task(DONE, Criticality.BACKGROUND);
+        final LaneQueue.Task newest = queue.task(DONE, Criticality.BACKGROUND);
+        final LaneQueue.Task critical = queue.task(DONE, Criticality.CRITICAL);
+        assertTrue(queue.offer(batch));
+        assertTrue(queue.offer(oldest));
+        assertTrue(queue.offer(newest));
+        assertTrue(queue.offer(critical));
+        assertTrue(newest.future().isDone());
+        try {
+            newest.future().get();
+            fail("Shed task succeeded");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof InvocationShedException, String.valueOf(e.getCause()));
+        }
+        assertFalse(oldest.future().isDone());
+        assertEquals(queue.size(), 3);
+        assertSame(queue.poll(), critical);
+        assertSame(queue.poll(), batch);
+        assertSame(queue.poll(), oldest);
+        // Nothing less critical left to shed
+        assertTrue(queue.offer(queue.task(DONE, Criticality.BACKGROUND)));
+        assertTrue(queue.offer(queue.task(DONE, Criticality.BACKGROUND)));
+        assertTrue(queue.offer(queue.task(DONE, Criticality.BACKGROUND)));
+        assertFalse(queue.offer(queue.task(DONE, Criticality.BACKGROUND)));
+    }
+
+    @Test
+    public void putWaitsForRoomInItsLane() throws Exception {
+        final LaneQueue queue = queue("blocking", 10, 1);
+        final LaneQueue.Task first = queue.task(DONE, Criticality.DEFAULT);
+        final LaneQueue.Task second = queue.task(DONE, Criticality.DEFAULT);
+        queue.put(first);
+        assertFalse(queue.offer(second));
+        assertFalse(queue.offer(second, 50, MILLISECONDS));
+        final CountDownLatch put = new CountDownLatch(1);
+        final Thread putter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    queue.put(second);
+                    put.countDown();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+            }
+        };
+        putter.start();
+        assertFalse(put.await(100, MILLISECONDS));
+        assertSame(queue.take(), first);
+        assertTrue(put.await(1, SECONDS));
+        assertSame(queue.poll(), second);
+        putter.join();
+    }
+}
@@ -0,0 +1,75 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class LatencyHistogramTest {
+
+    public static class Paced implements Callable<String> {
+        @Instrumented(clazz=LatencyHistogramTest.class, method="paced", logged=false, highDynamicRange=true,
+                significantDigits=3, expectedInterval=10, snapshotInterval=200,
+                snapshotIntervalUnit=MILLISECONDS)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Unpaced implements Callable<String> {
+        @Instrumented(clazz=LatencyHistogramTest.class, method="unpaced", logged=false, highDynamicRange=true,
+                significantDigits=3, snapshotInterval=200, snapshotIntervalUnit=MILLISECONDS)
+        public String call() {
+            return "done";
+        }
+    }
+
+    private static LatencyHistogram histogram(final Class<? extends Callable<?>> clazz, final String method)
+            throws Exception {
+        final Instrumented config = clazz.getMethod("call").getAnnotation(Instrumented.class);
+        return new LatencyHistogram(new MetricName(LatencyHistogramTest.class, "Latency", method), config);
+    }
+
+    /**
+     * 99 calls of 1 ms paced every 10 ms, then a stall of 1 s holding back the calls which were due meanwhile, recorded
+     * once the snapshot interval elapsed, for them to become the snapshot on the next read.
+     */
+    private static void recordStall(final LatencyHistogram histogram) throws InterruptedException {
+        Thread.sleep(250);
+        for (int i = 0; i < 99; i++) {
+            histogram.record(MILLISECONDS.toNanos(1));
+        }
+        histogram.record(MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void backFillsTheCallsHeldBackByAStall() throws Exception {
+        final LatencyHistogram histogram = histogram(Paced.class, "paced");
+        recordStall(histogram);
+        // The stall also stands for the 99 calls due every 10 ms meanwhile, seeing 990 ms down to 10 ms
+        assertEquals(histogram.count(), 99 + 1 + 99);
+        assertEquals(histogram.valueAtNanos(0.5), MILLISECONDS.toNanos(10), MILLISECONDS.toNanos(1) / 10);
+        final long p75 = histogram.valueAtNanos(0.75);
+        assertTrue(p75 >= MILLISECONDS.toNanos(490) && p75 <= MILLISECONDS.toNanos(520), p75 + "ns");
+        final long p99 = histogram.valueAtNanos(0.99);
+        assertTrue(p99 >= MILLISECONDS.toNanos(970), p99 + "ns");
+    }
+
+    @Test
+    public void recordsTheStallOnceWithoutAnExpectedInterval() throws Exception {
+        final LatencyHistogram histogram = histogram(Unpaced.class, "unpaced");
+        recordStall(histogram);
+        assertEquals(histogram.count(), 100);
+        final long p99 = histogram.valueAtNanos(0.99);
+        assertTrue(p99 <= MILLISECONDS.toNanos(2), p99 + "ns");
+        assertTrue(histogram.valueAtNanos(1) >= MILLISECONDS.toNanos(999));
+    }
+}
@@ -0,0 +1,82 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Counter;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class MetricsViewTest {
+
+    public static class Succeed implements Callable<String> {
+        @Instrumented(clazz=MetricsViewTest.class, method="succeed", logged=false, snapshotInterval=200,
+                snapshotIntervalUnit=TimeUnit.MILLISECONDS)
+        public String call() {
+            return "done";
+        }
+    }
+
+    @Test
+    public void foldsIntoRegistryCountersAndLatencyGauges() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            ServiceInvocation.execute(new Succeed());
+        }
+        final Metric success = metric("Success");
+        final Metric successCount = metric("Success-Time-Count");
+        assertTrue(success instanceof Counter);
+        assertTrue(successCount instanceof Gauge);
+        assertTrue(metric("Success-Time-P99") instanceof Gauge);
+        assertTrue(metric("Success-Time-Max") instanceof Gauge);
+        final long giveUpAt = System.currentTimeMillis() + 1000;
+        do {
+            MetricsView.fold();
+        } while (((Counter) success).count() < 3 && System.currentTimeMillis() < giveUpAt);
+        assertEquals(((Counter) success).count(), 3);
+        Thread.sleep(250); // The snapshot interval elapses
+        assertEquals(((Gauge<?>) successCount).value(), Long.valueOf(3));
+        MetricsView.fold();
+        assertEquals(((Counter) success).count(), 3);
+    }
+
+    @Test
+    public void recordsWithoutAllocating() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Allocated bytes are not measurable on this JVM");
+        }
+        final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final StripedCounter counter = MetricsView.counter(new MetricName(MetricsViewTest.class, "Count", "alloc"));
+        final LatencyHistogram latency =
+            MetricsView.latency(new MetricName(MetricsViewTest.class, "Latency", "alloc"), null);
+        record(counter, latency);
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        record(counter, latency);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated < 1024, allocated + " bytes allocated recording 100000 metrics");
+    }
+
+    private static void record(final StripedCounter counter, final LatencyHistogram latency) {
+        for (int i = 0; i < 100000; i++) {
+            counter.inc();
+            latency.record(i * 1000L);
+        }
+    }
+
+    private static Metric metric(final String name) {
+        return Metrics.defaultRegistry().allMetrics().get(new MetricName(MetricsViewTest.class, name, "succeed"));
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class OrphansTest {
+
+    public static class Stubborn implements Callable<String> {
+        @Conform(maxWaitTime=20, interruptOnTimeout=false)
+        @Instrumented(clazz=OrphansTest.class, method="stubborn", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(200);
+            return "done";
+        }
+    }
+
+    public static class Straggler implements Callable<String> {
+        private final AtomicInteger executions = new AtomicInteger();
+
+        @Conform(hedgeAfter=20)
+        @Instrumented(clazz=OrphansTest.class, method="straggler", logged=false)
+        public String call() throws InterruptedException {
+            if (executions.incrementAndGet() == 1) { // The first execution straggles, and loses to the hedge
+                Thread.sleep(300);
+            }
+            return "done";
+        }
+    }
+
+    @Test
+    public void timedOutAttemptsStillRunningAreOrphaned() throws Exception {
+        try {
+            ServiceInvocation.execute(new Stubborn());
+            fail("Should have timed out");
+        } catch (final ServiceInvocationException e) {
+            // expected
+        }
+        assertEquals(Dependency.of(OrphansTest.class, "stubborn").counter("Orphaned-Attempts").count(), 1);
+    }
+
+    @Test
+    public void hedgesWhichLostAreNotOrphaned() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Straggler()), "done");
+        Thread.sleep(50); // The loser is cancelled once the hedge won
+        assertEquals(Dependency.of(OrphansTest.class, "straggler").counter("Orphaned-Attempts").count(), 0);
+    }
+}
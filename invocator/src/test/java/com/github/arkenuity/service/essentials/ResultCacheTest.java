@@ -0,0 +1,238 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class ResultCacheTest {
+
+    private static final AtomicInteger STALE_LOADS = new AtomicInteger();
+    private static final AtomicInteger EXPIRING_LOADS = new AtomicInteger();
+    private static final AtomicInteger MISSING_LOADS = new AtomicInteger();
+    private static final AtomicInteger WEIGHED_LOADS = new AtomicInteger();
+    private static final AtomicInteger GONE_LOADS = new AtomicInteger();
+    private static final List<String> REFRESHED_ON = new CopyOnWriteArrayList<String>();
+
+    private abstract static class Lookup implements Callable<Integer>, Keyed {
+        @Override
+        public Object key() {
+            return "key";
+        }
+    }
+
+    public static class Count extends Lookup {
+        @Cached(ttl=5)
+        @Instrumented(clazz=ResultCacheTest.class, method="typed", logged=false)
+        public Integer call() {
+            return 1;
+        }
+    }
+
+    public static class Name implements Callable<String>, Keyed {
+        @Override
+        public Object key() {
+            return "key";
+        }
+
+        @Cached(ttl=5)
+        @Instrumented(clazz=ResultCacheTest.class, method="typed", logged=false)
+        public String call() {
+            return "one";
+        }
+    }
+
+    public static class Stale extends Lookup {
+        @Cached(ttl=100, ttlUnit=TimeUnit.MILLISECONDS, staleWhileRevalidate=5,
+                staleWhileRevalidateUnit=TimeUnit.SECONDS)
+        @Instrumented(clazz=ResultCacheTest.class, method="stale", logged=false)
+        public Integer call() {
+            return STALE_LOADS.incrementAndGet();
+        }
+    }
+
+    public static class Refreshed extends Lookup {
+        @Cached(ttl=100, ttlUnit=TimeUnit.MILLISECONDS, staleWhileRevalidate=5,
+                staleWhileRevalidateUnit=TimeUnit.SECONDS)
+        @Instrumented(clazz=ResultCacheTest.class, method="refreshed", logged=false)
+        public Integer call() throws InterruptedException {
+            REFRESHED_ON.add(Thread.currentThread().getName());
+            if (REFRESHED_ON.size() > 1) { // The refresh is slow
+                Thread.sleep(300);
+            }
+            return REFRESHED_ON.size();
+        }
+    }
+
+    public static class Expiring extends Lookup {
+        @Cached(ttl=50, ttlUnit=TimeUnit.MILLISECONDS, cacheFailures=IllegalArgumentException.class, failureTtl=5)
+        @Instrumented(clazz=ResultCacheTest.class, method="expiring", logged=false)
+        public Integer call() {
+            return EXPIRING_LOADS.incrementAndGet();
+        }
+    }
+
+    public static class Missing extends Lookup {
+        @Cached(ttl=5, cacheFailures=IllegalArgumentException.class, failureTtl=5)
+        @Instrumented(clazz=ResultCacheTest.class, method="missing", logged=false)
+        public Integer call() {
+            MISSING_LOADS.incrementAndGet();
+            throw new IllegalArgumentException("No such key");
+        }
+    }
+
+    /**
+     * Tells the permanent failures of a client library raising UnsupportedOperationException.
+     */
+    public static class GoneClassifier extends DefaultFailureClassifier {
+        @Override
+        public FailureKind classify(final Class<? extends Throwable> rootCause) {
+            return UnsupportedOperationException.class.isAssignableFrom(rootCause) ? FailureKind.PERMANENT :
+                super.classify(rootCause);
+        }
+    }
+
+    public static class Gone implements Callable<Integer>, Keyed {
+        private final boolean permanently;
+
+        public Gone(final boolean permanently) {
+            this.permanently = permanently;
+        }
+
+        @Override
+        public Object key() {
+            return permanently;
+        }
+
+        @Cached(ttl=5, cacheFailureKinds=FailureKind.PERMANENT, failureTtl=5)
+        @Instrumented(clazz=ResultCacheTest.class, method="gone", logged=false, classifier=GoneClassifier.class)
+        public Integer call() {
+            GONE_LOADS.incrementAndGet();
+            throw new IllegalStateException(permanently ? new UnsupportedOperationException("Gone") : null);
+        }
+    }
+
+    public static class Weighed implements Callable<String>, Keyed {
+        private final String key;
+
+        public Weighed(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public Object key() {
+            return key;
+        }
+
+        @Cached(ttl=5, maxWeight=8)
+        @Instrumented(clazz=ResultCacheTest.class, method="weighed", logged=false)
+        public String call() {
+            WEIGHED_LOADS.incrementAndGet();
+            return key + key + key + key + key;
+        }
+    }
+
+    @Test
+    public void servesStaleWhileRefreshing() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Stale()), Integer.valueOf(1));
+        assertEquals(ServiceInvocation.execute(new Stale()), Integer.valueOf(1));
+        assertEquals(STALE_LOADS.get(), 1);
+        Thread.sleep(150);
+        assertEquals(ServiceInvocation.execute(new Stale()), Integer.valueOf(1)); // Stale, refreshed meanwhile
+        for (int i = 0; i < 100 && STALE_LOADS.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(ServiceInvocation.execute(new Stale()), Integer.valueOf(2));
+        assertEquals(STALE_LOADS.get(), 2);
+    }
+
+    @Test
+    public void refreshesOnTheEngineWhenCallingInline() throws Exception {
+        final ExecutionEngine engine = ExecutionEngine.builder().named("cache-refresh").maxThreads(1)
+                .inlineUntimedCalls().build();
+        assertEquals(ServiceInvocation.execute(new Refreshed(), engine), Integer.valueOf(1));
+        assertEquals(REFRESHED_ON.get(0), Thread.currentThread().getName());
+        Thread.sleep(150);
+        final long startedAt = System.nanoTime();
+        assertEquals(ServiceInvocation.execute(new Refreshed(), engine), Integer.valueOf(1)); // Stale
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.MILLISECONDS.toNanos(200));
+        for (int i = 0; i < 100 && REFRESHED_ON.size() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(REFRESHED_ON.get(1).startsWith("cache-refresh-"), REFRESHED_ON.get(1));
+        engine.shutdown();
+    }
+
+    @Test
+    public void scopesTheResultsByCallableClass() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Count()), Integer.valueOf(1));
+        assertEquals(ServiceInvocation.execute(new Name()), "one");
+        assertEquals(ServiceInvocation.execute(new Count()), Integer.valueOf(1));
+    }
+
+    @Test
+    public void cachesTheFailuresByKind() {
+        for (final boolean permanently : new boolean[] {true, false}) {
+            final int loads = GONE_LOADS.get();
+            for (int i = 0; i < 3; i++) {
+                try {
+                    ServiceInvocation.execute(new Gone(permanently));
+                    fail("Should have failed");
+                } catch (final ServiceInvocationException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException, String.valueOf(e.getCause()));
+                }
+            }
+            // Only the permanent failures are cached, the others are application failures
+            assertEquals(GONE_LOADS.get() - loads, permanently ? 1 : 3);
+        }
+    }
+
+    @Test
+    public void boundsTheResultsByWeight() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Weighed("a")), "aaaaa");
+        assertEquals(ServiceInvocation.execute(new Weighed("a")), "aaaaa");
+        assertEquals(WEIGHED_LOADS.get(), 1);
+        assertEquals(ServiceInvocation.execute(new Weighed("b")), "bbbbb"); // Both weigh more than 8
+        assertEquals(ServiceInvocation.execute(new Weighed("b")), "bbbbb");
+        assertEquals(WEIGHED_LOADS.get(), 2);
+        assertEquals(ServiceInvocation.execute(new Weighed("a")), "aaaaa");
+        assertEquals(WEIGHED_LOADS.get(), 3);
+    }
+
+    @Test
+    public void expiresResultsOutlivedByTheFailureTtl() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Expiring()), Integer.valueOf(1));
+        assertEquals(ServiceInvocation.execute(new Expiring()), Integer.valueOf(1));
+        Thread.sleep(100);
+        assertEquals(ServiceInvocation.execute(new Expiring()), Integer.valueOf(2));
+    }
+
+    @Test
+    public void cachesPermanentFailures() {
+        Throwable first = null;
+        for (int i = 0; i < 3; i++) {
+            try {
+                ServiceInvocation.execute(new Missing());
+                fail("Should have failed");
+            } catch (final ServiceInvocationException e) {
+                if (first == null) {
+                    first = e.getCause();
+                }
+                assertSame(e.getCause(), first);
+            }
+        }
+        assertEquals(MISSING_LOADS.get(), 1);
+    }
+}
@@ -0,0 +1,92 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class RetryBudgetTest {
+
+    public static class Budgeted implements Callable<String> {
+        @Conform(retryCount=2, retryBudget=0.1, minRetriesPerSecond=5)
+        @Instrumented(clazz=RetryBudgetTest.class, method="budgeted", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Allowed implements Callable<String> {
+        @Conform(retryCount=2, retryBudget=0.1, minRetriesPerSecond=5)
+        @Instrumented(clazz=RetryBudgetTest.class, method="allowed", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    private static int retries(final RetryBudget budget, final int attempts) {
+        int retried = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (budget.tryRetry()) {
+                retried++;
+            }
+        }
+        return retried;
+    }
+
+    @Test
+    public void concurrentRetriesDoNotOverrunTheBudget() throws Exception {
+        final Conform config = Budgeted.class.getMethod("call").getAnnotation(Conform.class);
+        final Dependency dependency = Dependency.of(RetryBudgetTest.class, "budgeted");
+        final RetryBudget budget = dependency.retryBudget(config);
+        final AtomicInteger retried = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < 1000; j++) {
+                        if (budget.tryRetry()) {
+                            retried.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // 5 retries per second over the 10 seconds window, nothing having succeeded yet
+        assertEquals(retried.get(), 50);
+        assertEquals(dependency.counter("Retry-Budget-Exhausted").count(), 8000 - 50);
+    }
+
+    @Test
+    public void allowsTheMinimumRetriesPlusARatioOfTheSuccesses() throws Exception {
+        final Conform config = Allowed.class.getMethod("call").getAnnotation(Conform.class);
+        final RetryBudget budget = Dependency.of(RetryBudgetTest.class, "allowed").retryBudget(config);
+        // 5 retries per second over the 10 seconds window, nothing having succeeded yet
+        assertEquals(retries(budget, 100), 50);
+        for (int i = 0; i < 100; i++) {
+            budget.called();
+            budget.succeeded();
+        }
+        assertEquals(retries(budget, 100), 10);
+    }
+}
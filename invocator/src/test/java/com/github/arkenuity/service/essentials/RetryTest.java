@@ -0,0 +1,63 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.net.ConnectException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class RetryTest {
+
+    private static final AtomicInteger FLAKY_CALLS = new AtomicInteger();
+    private static final AtomicInteger DOWN_CALLS = new AtomicInteger();
+
+    public static class Flaky implements Callable<String> {
+        @Conform(retryCount=3, backoff=50)
+        @Instrumented(clazz=RetryTest.class, method="flaky", logged=false)
+        public String call() throws ConnectException {
+            if (FLAKY_CALLS.incrementAndGet() <= 2) {
+                throw new ConnectException("Connection refused");
+            }
+            return "done";
+        }
+    }
+
+    public static class Down implements Callable<String> {
+        @Conform(retryCount=2)
+        @Instrumented(clazz=RetryTest.class, method="down", logged=false)
+        public String call() throws ConnectException {
+            DOWN_CALLS.incrementAndGet();
+            throw new ConnectException("Connection refused");
+        }
+    }
+
+    @Test
+    public void retriesWithExponentialBackoff() throws Exception {
+        final long startedAt = System.currentTimeMillis();
+        assertEquals(ServiceInvocation.execute(new Flaky()), "done");
+        final long elapsed = System.currentTimeMillis() - startedAt;
+        assertEquals(FLAKY_CALLS.get(), 3);
+        assertEquals(Dependency.of(RetryTest.class, "flaky").counter("Retry").count(), 2);
+        // 50ms before the first retry, 100ms before the second one
+        assertTrue(elapsed >= 150, elapsed + "ms");
+    }
+
+    @Test
+    public void givesUpOnceTheRetriesAreExhausted() throws Exception {
+        try {
+            ServiceInvocation.execute(new Down());
+            fail("Should have failed");
+        } catch (final ServiceInvocationException e) {
+            // expected
+        }
+        assertEquals(DOWN_CALLS.get(), 3);
+        assertEquals(Dependency.of(RetryTest.class, "down").counter("Retry").count(), 2);
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.arkenuity.service.essentials;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class SingleFlightTest {
+
+    private static final CountDownLatch RELEASE = new CountDownLatch(1);
+    private static final AtomicInteger NAME_CALLS = new AtomicInteger();
+    private static final AtomicInteger AGE_CALLS = new AtomicInteger();
+
+    /** Not instrumented, as is {@link Age}: both used to share the global scope. */
+    public static class Name implements Callable<String>, Keyed {
+        @Override
+        public Object key() {
+            return 42L;
+        }
+
+        @Override
+        public String call() throws Exception {
+            NAME_CALLS.incrementAndGet();
+            RELEASE.await(5, TimeUnit.SECONDS);
+            return "forty two";
+        }
+    }
+
+    public static class Age implements Callable<Integer>, Keyed {
+        @Override
+        public Object key() {
+            return 42L;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            AGE_CALLS.incrementAndGet();
+            RELEASE.await(5, TimeUnit.SECONDS);
+            return 42;
+        }
+    }
+
+    @Test
+    public void collapsesPerCallableClass() throws Exception {
+        final List<ListenableFuture<String>> names = new ArrayList<ListenableFuture<String>>();
+        final List<ListenableFuture<Integer>> ages = new ArrayList<ListenableFuture<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            names.add(ServiceInvocation.submit(new Name()));
+            ages.add(ServiceInvocation.submit(new Age()));
+        }
+        RELEASE.countDown();
+        for (final ListenableFuture<String> name : names) {
+            assertEquals(name.get(), "forty two");
+        }
+        for (final ListenableFuture<Integer> age : ages) {
+            assertEquals(age.get(), Integer.valueOf(42));
+        }
+        assertEquals(NAME_CALLS.get(), 1);
+        assertEquals(AGE_CALLS.get(), 1);
+    }
+}
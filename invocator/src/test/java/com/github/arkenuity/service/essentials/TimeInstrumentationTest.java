@@ -0,0 +1,91 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class TimeInstrumentationTest {
+
+    public static class Throttled implements Callable<String> {
+        @RateLimited(rate=5, maxWait=1000)
+        @Instrumented(clazz=TimeInstrumentationTest.class, method="throttled", logged=false, snapshotInterval=100,
+                      snapshotIntervalUnit=TimeUnit.MILLISECONDS)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Blocker implements Callable<String> {
+        @Instrumented(clazz=TimeInstrumentationTest.class, method="blocker", logged=false)
+        public String call() throws InterruptedException {
+            Thread.sleep(200);
+            return "done";
+        }
+    }
+
+    public static class Queued implements Callable<String> {
+        @Instrumented(clazz=TimeInstrumentationTest.class, method="queued", logged=false, highDynamicRange=true,
+                      snapshotInterval=200, snapshotIntervalUnit=MILLISECONDS)
+        public String call() throws InterruptedException {
+            Thread.sleep(50);
+            return "done";
+        }
+    }
+
+    /**
+     * The max latency of the single call recorded, once it became the snapshot.
+     */
+    private static long recorded(final LatencyHistogram histogram) throws InterruptedException {
+        for (int i = 0; i < 100 && histogram.count() < 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(histogram.count(), 1);
+        return histogram.valueAtNanos(1);
+    }
+
+    @Test
+    public void queueTimeIncludesTheRateLimitWait() throws Exception {
+        ServiceInvocation.execute(new Throttled());
+        ServiceInvocation.execute(new Throttled());
+        final Dependency dependency = Dependency.of(TimeInstrumentationTest.class, "throttled");
+        final LatencyHistogram queue = dependency.histogram("Queue-Time", null);
+        final LatencyHistogram callQueue = dependency.histogram("Call-Queue-Time", null);
+        final LatencyHistogram call = dependency.histogram("Call-Time", null);
+        Thread.sleep(150); // Past the snapshot interval, and the tracking of the second call
+        assertEquals(queue.count(), 2);
+        assertEquals(callQueue.count(), 2);
+        // The second call waited 200ms for a token before running
+        assertTrue(queue.valueAtNanos(1) >= MILLISECONDS.toNanos(150), queue.valueAtNanos(1) + "ns");
+        assertTrue(callQueue.valueAtNanos(1) >= MILLISECONDS.toNanos(150), callQueue.valueAtNanos(1) + "ns");
+        assertTrue(call.valueAtNanos(1) >= callQueue.valueAtNanos(1));
+    }
+
+    @Test
+    public void splitsTheQueueWaitFromTheExecution() throws Exception {
+        final Instrumented config = Queued.class.getMethod("call").getAnnotation(Instrumented.class);
+        final Dependency dependency = Dependency.of(TimeInstrumentationTest.class, "queued");
+        final LatencyHistogram queue = dependency.histogram("Queue-Time", config);
+        final LatencyHistogram execution = dependency.histogram("Execution-Time", config);
+        final LatencyHistogram call = dependency.histogram("Call-Time", config);
+        Thread.sleep(250); // The call below is recorded once the snapshot interval elapsed, to be the next snapshot
+        final ExecutionEngine engine = ExecutionEngine.builder().named("split").maxThreads(1).build();
+        ServiceInvocation.submit(new Blocker(), engine);
+        assertEquals(ServiceInvocation.submit(new Queued(), engine).get(1, SECONDS), "done");
+        final long queued = recorded(queue);
+        final long executed = recorded(execution);
+        assertTrue(queued >= MILLISECONDS.toNanos(150), queued + "ns");
+        assertTrue(executed >= MILLISECONDS.toNanos(45) && executed < MILLISECONDS.toNanos(150), executed + "ns");
+        final long called = recorded(call);
+        assertTrue(called >= MILLISECONDS.toNanos(200), called + "ns");
+        engine.shutdown();
+    }
+}
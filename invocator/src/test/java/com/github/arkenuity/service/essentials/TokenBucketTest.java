@@ -0,0 +1,103 @@
+package com.github.arkenuity.service.essentials;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.concurrent.Callable;
+
+import org.testng.annotations.Test;
+
+/**
+ * @author <a href="mailto:arkenuity@gmail.com">Rajesh Kumar Arcot</a>
+ */
+public class TokenBucketTest {
+
+    public static class Bursting implements Callable<String> {
+        @RateLimited(rate=10, burst=3)
+        @Instrumented(clazz=TokenBucketTest.class, method="bursting", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Waiting implements Callable<String> {
+        @RateLimited(rate=10, maxWait=250)
+        @Instrumented(clazz=TokenBucketTest.class, method="waiting", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Throttled implements Callable<String> {
+        @RateLimited(rate=10)
+        @Instrumented(clazz=TokenBucketTest.class, method="throttled", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    public static class Delayed implements Callable<String> {
+        @RateLimited(rate=10, maxWait=500)
+        @Instrumented(clazz=TokenBucketTest.class, method="delayed", logged=false)
+        public String call() {
+            return "done";
+        }
+    }
+
+    private static TokenBucket bucket(final Class<? extends Callable<?>> clazz, final String method) throws Exception {
+        final RateLimited config = clazz.getMethod("call").getAnnotation(RateLimited.class);
+        return new TokenBucket(Dependency.of(TokenBucketTest.class, method), config);
+    }
+
+    @Test
+    public void allowsTheBurstThenRefillsAtTheRate() throws Exception {
+        final TokenBucket bucket = bucket(Bursting.class, "bursting");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(bucket.acquire(Long.MAX_VALUE), 0);
+        }
+        assertEquals(bucket.acquire(Long.MAX_VALUE), TokenBucket.REJECTED);
+        Thread.sleep(120); // A token every 100 ms
+        assertEquals(bucket.acquire(Long.MAX_VALUE), 0);
+        assertEquals(bucket.acquire(Long.MAX_VALUE), TokenBucket.REJECTED);
+        assertEquals(Dependency.of(TokenBucketTest.class, "bursting").counter("Rate-Limited").count(), 2);
+    }
+
+    @Test
+    public void waitsForATokenUpToTheMaxWait() throws Exception {
+        final TokenBucket bucket = bucket(Waiting.class, "waiting");
+        assertEquals(bucket.acquire(Long.MAX_VALUE), 0);
+        // Nor past the deadline of the caller
+        assertEquals(bucket.acquire(MILLISECONDS.toNanos(50)), TokenBucket.REJECTED);
+        final long first = bucket.acquire(Long.MAX_VALUE);
+        assertTrue(first > MILLISECONDS.toNanos(50) && first <= MILLISECONDS.toNanos(100), first + "ns");
+        final long second = bucket.acquire(Long.MAX_VALUE);
+        assertTrue(second > MILLISECONDS.toNanos(150) && second <= MILLISECONDS.toNanos(200), second + "ns");
+        // A third one would wait 300 ms, longer than the max wait
+        assertEquals(bucket.acquire(Long.MAX_VALUE), TokenBucket.REJECTED);
+        final Dependency dependency = Dependency.of(TokenBucketTest.class, "waiting");
+        assertEquals(dependency.counter("Rate-Delayed").count(), 2);
+        assertEquals(dependency.counter("Rate-Limited").count(), 2);
+    }
+
+    @Test
+    public void rejectsRightAwayWithoutMaxWait() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Throttled()), "done");
+        try {
+            ServiceInvocation.execute(new Throttled());
+            fail("Should have been rate limited");
+        } catch (final RateLimitedException e) {
+            // expected, surfaced as is
+        }
+    }
+
+    @Test
+    public void delaysTheInvocationsUntilTheirToken() throws Exception {
+        assertEquals(ServiceInvocation.execute(new Delayed()), "done");
+        final long startedAt = System.nanoTime();
+        assertEquals(ServiceInvocation.execute(new Delayed()), "done");
+        final long elapsed = System.nanoTime() - startedAt;
+        assertTrue(elapsed >= MILLISECONDS.toNanos(50), elapsed + "ns");
+    }
+}